@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.benchmarks;
+
+import org.evolution.pixelparts.autohbm.AutoHbmConfig;
+import org.evolution.pixelparts.autohbm.AutoHbmController;
+import org.evolution.pixelparts.host.AutoHbmReplay;
+
+/**
+ * Benchmarks for the auto HBM controller, fed from the synthetic light trace of
+ * {@link AutoHbmReplay}. ops/s of the per-sample cases is the number of sensor events
+ * processed per second.
+ *
+ * Usage: AutoHbmBenchmarks [warmup_iterations] [iterations] [iteration_ms]
+ */
+public class AutoHbmBenchmarks {
+
+    // Keeps results reachable so the JIT cannot drop the benchmarked work
+    private static long sBlackhole;
+
+    public static void main(String[] args) throws Exception {
+        int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long iterationMs = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, iterationMs);
+        BenchmarkRunner.printHeader();
+
+        final AutoHbmReplay.LightTrace trace = AutoHbmReplay.synthetic(0,
+                AutoHbmReplay.SYNTHETIC_SECONDS, AutoHbmReplay.SYNTHETIC_RATE_HZ);
+        final int size = trace.size();
+        final long[] timestamps = new long[size];
+        final float[] lux = new float[size];
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = trace.getTimestamp(i);
+            lux[i] = trace.getLux(i);
+        }
+        // Keeps timestamps increasing when the trace wraps around
+        final long traceSpan = trace.getDurationNanos() + 1;
+
+        // Single sensor events
+        final AutoHbmController controller = new AutoHbmController(AutoHbmConfig.DEFAULT);
+        final int[] index = new int[1];
+        final long[] offset = new long[1];
+        final boolean[] hbmEnabled = new boolean[1];
+        runner.run("controller_onLightSample", () -> {
+            int i = index[0];
+            int action = controller.onLightSample(timestamps[i] + offset[0], lux[i],
+                    hbmEnabled[0], false);
+            if (action != AutoHbmController.ACTION_NONE) {
+                hbmEnabled[0] = action == AutoHbmController.ACTION_ENABLE;
+            }
+            if (++i == size) {
+                i = 0;
+                offset[0] += traceSpan;
+            }
+            index[0] = i;
+            sBlackhole += action;
+        });
+
+        // Whole trace replays, including the bookkeeping of the harness
+        runner.run("replay_synthetic_30min", () -> {
+            AutoHbmReplay.Result result = AutoHbmReplay.replay(trace,
+                    new AutoHbmController(AutoHbmConfig.DEFAULT));
+            sBlackhole += result.getToggles();
+        });
+
+        System.out.println("blackhole " + sBlackhole);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Minimal benchmark harness measuring throughput, per-operation latency and allocation
+ * rate of a single-threaded operation.
+ *
+ * Allocations are taken from the per-thread allocation counter, the same source the JMH
+ * gc profiler uses for its normalized allocation rate.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * A single benchmarked operation.
+     */
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    private static final int MAX_LATENCY_SAMPLES = 1 << 20;
+
+    private final int mWarmupIterations;
+    private final int mMeasurementIterations;
+    private final long mIterationNanos;
+    private final long[] mLatencies = new long[MAX_LATENCY_SAMPLES];
+    private int mSampleCount;
+
+    private final com.sun.management.ThreadMXBean mThreadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations,
+            long iterationMillis) {
+        mWarmupIterations = warmupIterations;
+        mMeasurementIterations = measurementIterations;
+        mIterationNanos = iterationMillis * 1000000L;
+    }
+
+    public static void printHeader() {
+        System.out.printf("%-36s %12s %10s %10s %10s %12s %10s%n", "Benchmark", "ops/s",
+                "avg ns", "p50 ns", "p99 ns", "alloc B/op", "alloc MB/s");
+    }
+
+    /**
+     * Warms up, measures and prints one result line for the given operation.
+     */
+    public void run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            runIteration(operation, false);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long totalOps = 0;
+        long totalNanos = 0;
+        mSampleCount = 0;
+        long allocatedBefore = mThreadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < mMeasurementIterations; i++) {
+            long start = System.nanoTime();
+            long ops = runIteration(operation, true);
+            totalNanos += System.nanoTime() - start;
+            totalOps += ops;
+        }
+        long allocated = mThreadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        int samples = mSampleCount;
+
+        Arrays.sort(mLatencies, 0, samples);
+        double seconds = totalNanos / 1e9;
+        System.out.printf("%-36s %12.0f %10.0f %10d %10d %12.1f %10.2f%n", name,
+                totalOps / seconds, (double) totalNanos / totalOps,
+                mLatencies[samples / 2], mLatencies[Math.max(0, samples * 99 / 100 - 1)],
+                (double) allocated / totalOps, allocated / seconds / (1024 * 1024));
+    }
+
+    private long runIteration(Operation operation, boolean record) throws Exception {
+        long deadline = System.nanoTime() + mIterationNanos;
+        long ops = 0;
+        long now;
+        do {
+            long start = System.nanoTime();
+            operation.run();
+            now = System.nanoTime();
+            if (record && mSampleCount < MAX_LATENCY_SAMPLES) {
+                mLatencies[mSampleCount++] = now - start;
+            }
+            ops++;
+        } while (now < deadline);
+        return ops;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Semaphore;
+
+import org.evolution.pixelparts.Constants;
+import org.evolution.pixelparts.batteryinfo.BatterySnapshot;
+import org.evolution.pixelparts.batteryinfo.BatterySnapshotReader;
+import org.evolution.pixelparts.host.FakeSysfs;
+import org.evolution.pixelparts.utils.FixedPointFormatter;
+import org.evolution.pixelparts.utils.SysfsNode;
+import org.evolution.pixelparts.utils.SysfsRoot;
+import org.evolution.pixelparts.utils.SysfsWriter;
+
+/**
+ * Benchmarks for the sysfs read/parse/format pipeline, run against a fake sysfs tree.
+ *
+ * The legacy_* cases replicate what FileUtils and BatteryInfo did before the I/O layer
+ * was reworked, so the two can be compared on the same machine.
+ *
+ * Usage: SysfsBenchmarks [root] [warmup_iterations] [iterations] [iteration_ms]
+ */
+public class SysfsBenchmarks {
+
+    private static final String DEFAULT_ROOT = "/dev/shm/pixelparts-bench";
+
+    private static final String[] BATTERY_INFO_NODES = {
+            Constants.NODE_TECHNOLOGY,
+            Constants.NODE_STATUS,
+            Constants.NODE_USB_TYPE,
+            Constants.NODE_TEMPERATURE,
+            Constants.NODE_CAPACITY,
+            Constants.NODE_CAPACITY_LEVEL,
+            Constants.NODE_CURRENT,
+            Constants.NODE_VOLTAGE,
+            Constants.NODE_HEALTH,
+            Constants.NODE_CYCLE_COUNT
+    };
+
+    // Keeps results reachable so the JIT cannot drop the benchmarked work
+    private static long sBlackhole;
+
+    public static void main(String[] args) throws Exception {
+        String root = args.length > 0 ? args[0] : DEFAULT_ROOT;
+        int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long iterationMs = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+
+        new FakeSysfs(Paths.get(root)).create();
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, iterationMs);
+        BenchmarkRunner.printHeader();
+
+        // Single node reads
+        final String currentPath = SysfsRoot.resolve(Constants.NODE_CURRENT);
+        runner.run("legacy_readOneLine", () -> {
+            sBlackhole += legacyReadOneLine(currentPath).length();
+        });
+
+        final SysfsNode currentNode = new SysfsNode(Constants.NODE_CURRENT);
+        runner.run("sysfsNode_readLine", () -> {
+            sBlackhole += currentNode.readLine().length();
+        });
+        runner.run("sysfsNode_readInt", () -> {
+            sBlackhole += currentNode.readInt(0);
+        });
+
+        // Parse and format
+        runner.run("legacy_getFileValue_parse_format", () -> {
+            String value = legacyReadOneLine(currentPath);
+            float voltage = Float.parseFloat(value);
+            sBlackhole += String.format("%.1f", (voltage / 1000000)).length();
+        });
+
+        final StringBuilder builder = new StringBuilder(32);
+        runner.run("sysfsNode_parse_format", () -> {
+            builder.setLength(0);
+            FixedPointFormatter.append(builder, currentNode.readInt(0), 6, 1);
+            sBlackhole += builder.length();
+        });
+
+        // Full battery info refresh
+        final String[] batteryInfoPaths = new String[BATTERY_INFO_NODES.length];
+        for (int i = 0; i < BATTERY_INFO_NODES.length; i++) {
+            batteryInfoPaths[i] = SysfsRoot.resolve(BATTERY_INFO_NODES[i]);
+        }
+        runner.run("legacy_batteryInfo_refresh", () -> {
+            sBlackhole += legacyRefresh(batteryInfoPaths);
+        });
+
+        final BatterySnapshotReader reader = new BatterySnapshotReader();
+        final BatterySnapshot snapshot = new BatterySnapshot();
+        runner.run("snapshot_batteryInfo_refresh", () -> {
+            reader.read(snapshot);
+            builder.setLength(0);
+            FixedPointFormatter.append(builder, snapshot.temperature, 1, 1);
+            FixedPointFormatter.append(builder, snapshot.voltageNow, 6, 1);
+            FixedPointFormatter.append(builder,
+                    Math.abs((long) snapshot.currentNow * snapshot.voltageNow), 12, 1);
+            sBlackhole += builder.length() + snapshot.valid;
+        });
+
+        // Writes
+        final String hbmPath = SysfsRoot.resolve(Constants.NODE_HBM);
+        final int[] toggle = new int[1];
+        runner.run("legacy_writeValue", () -> {
+            legacyWriteValue(hbmPath, (toggle[0]++ & 1) == 0 ? "1" : "0");
+        });
+
+        final SysfsWriter writer = SysfsWriter.getInstance();
+        runner.run("sysfsWriter_redundant", () -> {
+            writer.write(Constants.NODE_HBM, "1");
+        });
+
+        final Semaphore written = new Semaphore(0);
+        final SysfsWriter.Callback callback = (node, value, success) -> written.release();
+        runner.run("sysfsWriter_toggle_roundtrip", () -> {
+            writer.write(Constants.NODE_HBM, (toggle[0]++ & 1) == 0 ? "1" : "0", callback);
+            written.acquire();
+        });
+
+        reader.close();
+        currentNode.close();
+        System.out.println("blackhole " + sBlackhole);
+    }
+
+    // What FileUtils.readOneLine does
+    private static String legacyReadOneLine(String fileName) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName), 512)) {
+            return reader.readLine();
+        }
+    }
+
+    // What FileUtils.writeValue does
+    private static void legacyWriteValue(String fileName, String value) throws IOException {
+        FileOutputStream fos = new FileOutputStream(new File(fileName));
+        fos.write(value.getBytes());
+        fos.flush();
+        fos.close();
+    }
+
+    // What BatteryInfo.updatePreferenceSummaries did before the snapshot reader
+    private static long legacyRefresh(String[] paths) throws IOException {
+        long result = 0;
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.exists() && file.canRead()) {
+                result += legacyReadOneLine(path).length();
+            }
+        }
+        float temperature = Integer.parseInt(legacyReadOneLine(paths[3])) / 10.0f;
+        result += (Math.round(temperature * 10) / 10.0f + "°C").length();
+        float voltage = Float.parseFloat(legacyReadOneLine(paths[7]));
+        result += (String.format("%.1f", (voltage / 1000000)) + "V").length();
+        float current = Integer.parseInt(legacyReadOneLine(paths[6])) / 1000.0f;
+        float wattage = Math.abs((voltage / 1000000.0f) * current / 1000.0f);
+        result += (String.format("%.1f", wattage) + "W").length();
+        return result;
+    }
+}
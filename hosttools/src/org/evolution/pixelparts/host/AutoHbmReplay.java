@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.host;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.evolution.pixelparts.autohbm.AutoHbmConfig;
+import org.evolution.pixelparts.autohbm.AutoHbmController;
+import org.evolution.pixelparts.autohbm.LuxFilter;
+
+/**
+ * Replays ambient light traces through the auto HBM controller and reports how often HBM
+ * was toggled, how long it took to come on after the light went above the threshold and
+ * how much of the trace was spent in HBM.
+ *
+ * A trace file holds one sample per line, the sensor timestamp in nanoseconds and the lux
+ * value separated by a comma or whitespace. Empty lines and lines starting with # are
+ * skipped. Without a file a synthetic trace of indoor light, direct sun under foliage
+ * and a car drive is generated instead.
+ *
+ * HBM writes are assumed to complete instantly and the keyguard is never showing. The
+ * trace is replayed at its recorded rate even where the controller would have slowed
+ * the sensor down; that time is reported separately.
+ *
+ * Usage: PixelPartsAutoHbmReplay [trace|-] [threshold] [enable_time_s] [disable_time_s]
+ *         [hysteresis_percent] [none|median|ewma] [median_window] [ewma_time_ms]
+ */
+public class AutoHbmReplay {
+
+    // SENSOR_DELAY_NORMAL
+    public static final int SYNTHETIC_RATE_HZ = 5;
+    public static final int SYNTHETIC_SECONDS = 30 * 60;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * Timestamped lux samples in primitive arrays.
+     */
+    public static final class LightTrace {
+        private long[] mTimestamps = new long[1024];
+        private float[] mLux = new float[1024];
+        private int mSize;
+
+        public void add(long timestampNanos, float lux) {
+            if (mSize == mTimestamps.length) {
+                mTimestamps = Arrays.copyOf(mTimestamps, mSize * 2);
+                mLux = Arrays.copyOf(mLux, mSize * 2);
+            }
+            mTimestamps[mSize] = timestampNanos;
+            mLux[mSize] = lux;
+            mSize++;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public long getTimestamp(int index) {
+            return mTimestamps[index];
+        }
+
+        public float getLux(int index) {
+            return mLux[index];
+        }
+
+        public long getDurationNanos() {
+            return mSize > 1 ? mTimestamps[mSize - 1] - mTimestamps[0] : 0;
+        }
+    }
+
+    /**
+     * Outcome of one replay.
+     */
+    public static final class Result {
+        public int samples;
+        public int enables;
+        public int disables;
+        // Enables that happened within the same run above the threshold they were for
+        public int timedEnables;
+        public long totalEnableLatencyNanos;
+        public long maxEnableLatencyNanos;
+        public long hbmNanos;
+        public long slowRateNanos;
+        public long durationNanos;
+
+        public int getToggles() {
+            return enables + disables;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("samples            %d%n", samples);
+            out.printf("duration           %.1f s%n", durationNanos / 1e9);
+            out.printf("hbm toggles        %d (%d on, %d off)%n", getToggles(), enables,
+                    disables);
+            if (timedEnables > 0) {
+                out.printf("enable latency     avg %.0f ms, max %d ms%n",
+                        (double) totalEnableLatencyNanos / timedEnables / NANOS_PER_MILLI,
+                        maxEnableLatencyNanos / NANOS_PER_MILLI);
+            } else {
+                out.printf("enable latency     -%n");
+            }
+            out.printf("time in hbm        %.1f s (%.1f%%)%n", hbmNanos / 1e9,
+                    durationNanos > 0 ? 100.0 * hbmNanos / durationNanos : 0);
+            out.printf("slow sensor rate   %.1f s (%.1f%%)%n", slowRateNanos / 1e9,
+                    durationNanos > 0 ? 100.0 * slowRateNanos / durationNanos : 0);
+        }
+    }
+
+    /**
+     * Feeds the whole trace to the controller.
+     */
+    public static Result replay(LightTrace trace, AutoHbmController controller) {
+        Result result = new Result();
+        int threshold = controller.getConfig().threshold;
+        boolean hbmEnabled = false;
+        boolean above = false;
+        long aboveSince = 0;
+        long hbmSince = 0;
+
+        for (int i = 0; i < trace.size(); i++) {
+            long timestamp = trace.getTimestamp(i);
+            float lux = trace.getLux(i);
+            if (lux > threshold && !above) {
+                above = true;
+                aboveSince = timestamp;
+            } else if (lux <= threshold) {
+                above = false;
+            }
+
+            int action = controller.onLightSample(timestamp, lux, hbmEnabled, false);
+            if (action == AutoHbmController.ACTION_ENABLE) {
+                hbmEnabled = true;
+                hbmSince = timestamp;
+                result.enables++;
+                if (above) {
+                    long latency = timestamp - aboveSince;
+                    result.timedEnables++;
+                    result.totalEnableLatencyNanos += latency;
+                    result.maxEnableLatencyNanos = Math.max(result.maxEnableLatencyNanos,
+                            latency);
+                }
+            } else if (action == AutoHbmController.ACTION_DISABLE) {
+                hbmEnabled = false;
+                result.hbmNanos += timestamp - hbmSince;
+                result.disables++;
+            }
+
+            if (!controller.isFastRate() && i + 1 < trace.size()) {
+                result.slowRateNanos += trace.getTimestamp(i + 1) - timestamp;
+            }
+        }
+
+        if (hbmEnabled && trace.size() > 0) {
+            result.hbmNanos += trace.getTimestamp(trace.size() - 1) - hbmSince;
+        }
+        result.samples = trace.size();
+        result.durationNanos = trace.getDurationNanos();
+        return result;
+    }
+
+    /**
+     * Loads a trace file, see the class description for the format.
+     */
+    public static LightTrace load(String path) throws IOException {
+        LightTrace trace = new LightTrace();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path),
+                StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("[,\\s]+");
+                if (fields.length < 2) {
+                    throw new IOException(path + ":" + lineNumber + ": expected timestamp and lux");
+                }
+                try {
+                    trace.add(Long.parseLong(fields[0]), Float.parseFloat(fields[1]));
+                } catch (NumberFormatException e) {
+                    throw new IOException(path + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Generates a repeatable trace cycling through a minute each of indoor light, direct
+     * sun under foliage with frequent shade dips, and a car drive with the light jumping
+     * between shade and sun every few seconds.
+     */
+    public static LightTrace synthetic(long seed, int seconds, int rateHz) {
+        Random random = new Random(seed);
+        LightTrace trace = new LightTrace();
+        long interval = NANOS_PER_SECOND / rateHz;
+        boolean carInSun = false;
+        long carSwitch = 0;
+
+        for (long timestamp = 0; timestamp < seconds * NANOS_PER_SECOND; timestamp += interval) {
+            // Sensor reports are never perfectly periodic
+            long jitter = (long) (random.nextGaussian() * interval / 20);
+            float lux;
+            switch ((int) (timestamp / (60 * NANOS_PER_SECOND) % 3)) {
+                case 0:
+                    lux = 300 * (float) (1 + random.nextGaussian() * 0.1);
+                    break;
+                case 1:
+                    lux = random.nextFloat() < 0.15f
+                            ? 5000 + random.nextFloat() * 13000
+                            : 35000 * (float) (1 + random.nextGaussian() * 0.05);
+                    break;
+                default:
+                    if (timestamp >= carSwitch) {
+                        carInSun = !carInSun;
+                        carSwitch = timestamp
+                                + (long) ((0.5 + random.nextFloat() * 2.5) * NANOS_PER_SECOND);
+                    }
+                    lux = carInSun
+                            ? 40000 * (float) (1 + random.nextGaussian() * 0.1)
+                            : 8000 * (float) (1 + random.nextGaussian() * 0.2);
+                    break;
+            }
+            trace.add(timestamp + jitter, Math.max(0, lux));
+        }
+        return trace;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean synthetic = args.length < 1 || args[0].equals("-");
+        int threshold = args.length > 1
+                ? Integer.parseInt(args[1]) : AutoHbmConfig.DEFAULT_THRESHOLD;
+        int enableTime = args.length > 2
+                ? Integer.parseInt(args[2]) : AutoHbmConfig.DEFAULT_ENABLE_TIME;
+        int disableTime = args.length > 3
+                ? Integer.parseInt(args[3]) : AutoHbmConfig.DEFAULT_DISABLE_TIME;
+        int hysteresis = args.length > 4
+                ? Integer.parseInt(args[4]) : AutoHbmConfig.DEFAULT_HYSTERESIS;
+        int filterMode = args.length > 5
+                ? LuxFilter.parseMode(args[5], -1) : AutoHbmConfig.DEFAULT_FILTER;
+        if (filterMode < 0) {
+            System.err.println("Unknown filter " + args[5]);
+            System.exit(1);
+        }
+        int medianWindow = args.length > 6
+                ? Integer.parseInt(args[6]) : AutoHbmConfig.DEFAULT_MEDIAN_WINDOW;
+        int ewmaTime = args.length > 7
+                ? Integer.parseInt(args[7]) : AutoHbmConfig.DEFAULT_EWMA_TIME;
+
+        LightTrace trace = synthetic
+                ? synthetic(0, SYNTHETIC_SECONDS, SYNTHETIC_RATE_HZ) : load(args[0]);
+        AutoHbmConfig config = new AutoHbmConfig(threshold, enableTime, disableTime,
+                hysteresis, filterMode, medianWindow, ewmaTime);
+        AutoHbmController controller = new AutoHbmController(config);
+
+        System.out.println("trace              " + (synthetic ? "synthetic" : args[0]));
+        System.out.printf("config             threshold %d/%d lux, enable %d s, disable %d s%n",
+                threshold, config.exitThreshold, enableTime, disableTime);
+        System.out.printf("filter             %s, median %d samples, ewma %d ms%n",
+                LuxFilter.MODE_NAMES[filterMode], medianWindow, ewmaTime);
+        replay(trace, controller).print(System.out);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.host;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.evolution.pixelparts.Constants;
+import org.evolution.pixelparts.utils.SysfsRoot;
+
+/**
+ * Builds a fake power_supply/backlight/fast_charge sysfs tree under a directory, usually
+ * on tmpfs, and plays scripted value changes into it.
+ *
+ * Values are rewritten in place so handles that keep the file open, like SysfsNode, see
+ * the updates the same way they would on a real kernel.
+ */
+public class FakeSysfs {
+
+    public static final String DEFAULT_ROOT = "/dev/shm/pixelparts-sysfs";
+
+    /**
+     * A scripted sequence of value changes, applied one tick at a time.
+     */
+    public interface Scenario {
+        void apply(FakeSysfs sysfs, int tick) throws IOException;
+    }
+
+    // Battery attributes and the uevent keys they are reported under
+    private static final String[][] BATTERY_ATTRIBUTES = {
+            { Constants.NODE_STATUS, "POWER_SUPPLY_STATUS" },
+            { Constants.NODE_HEALTH, "POWER_SUPPLY_HEALTH" },
+            { Constants.NODE_TECHNOLOGY, "POWER_SUPPLY_TECHNOLOGY" },
+            { Constants.NODE_CYCLE_COUNT, "POWER_SUPPLY_CYCLE_COUNT" },
+            { Constants.NODE_VOLTAGE, "POWER_SUPPLY_VOLTAGE_NOW" },
+            { Constants.NODE_CURRENT, "POWER_SUPPLY_CURRENT_NOW" },
+            { Constants.NODE_CAPACITY, "POWER_SUPPLY_CAPACITY" },
+            { Constants.NODE_CAPACITY_LEVEL, "POWER_SUPPLY_CAPACITY_LEVEL" },
+            { Constants.NODE_TEMPERATURE, "POWER_SUPPLY_TEMP" }
+    };
+
+    private final Path mRoot;
+    private final Map<String, String> mValues = new LinkedHashMap<>();
+
+    public FakeSysfs(Path root) {
+        mRoot = root;
+    }
+
+    public Path getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * Creates the tree with idle, discharging defaults and points SysfsRoot at it.
+     */
+    public FakeSysfs create() throws IOException {
+        mValues.put(Constants.NODE_STATUS, "Discharging");
+        mValues.put(Constants.NODE_HEALTH, "Good");
+        mValues.put(Constants.NODE_TECHNOLOGY, "Li-ion");
+        mValues.put(Constants.NODE_CYCLE_COUNT, "142");
+        mValues.put(Constants.NODE_VOLTAGE, "3987000");
+        mValues.put(Constants.NODE_CURRENT, "-412000");
+        mValues.put(Constants.NODE_CAPACITY, "57");
+        mValues.put(Constants.NODE_CAPACITY_LEVEL, "Normal");
+        mValues.put(Constants.NODE_TEMPERATURE, "291");
+        mValues.put(Constants.NODE_USB_TYPE, "[Unknown] SDP CDP DCP");
+        mValues.put(Constants.NODE_HBM, "0");
+        mValues.put(Constants.NODE_FAST_CHARGE, "0");
+
+        for (Map.Entry<String, String> entry : mValues.entrySet()) {
+            writeNode(entry.getKey(), entry.getValue());
+        }
+        writeUevent();
+
+        SysfsRoot.setRoot(mRoot.toString());
+        return this;
+    }
+
+    /**
+     * Sets a node to the given value, keeping the battery uevent in sync.
+     */
+    public void set(String node, String value) throws IOException {
+        mValues.put(node, value);
+        writeNode(node, value);
+        for (String[] attribute : BATTERY_ATTRIBUTES) {
+            if (attribute[0].equals(node)) {
+                writeUevent();
+                break;
+            }
+        }
+    }
+
+    public String get(String node) {
+        return mValues.get(node);
+    }
+
+    /**
+     * Reads back the value a node currently holds, e.g. one written by the app.
+     */
+    public String read(String node) throws IOException {
+        return new String(Files.readAllBytes(resolve(node)), StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * Applies the scenario for the given number of ticks, sleeping between ticks.
+     */
+    public void play(Scenario scenario, int ticks, long intervalMs)
+            throws IOException, InterruptedException {
+        for (int tick = 0; tick < ticks; tick++) {
+            scenario.apply(this, tick);
+            if (intervalMs > 0) {
+                Thread.sleep(intervalMs);
+            }
+        }
+    }
+
+    private Path resolve(String node) {
+        return mRoot.resolve(node.substring(1));
+    }
+
+    private void writeNode(String node, String value) throws IOException {
+        Path path = resolve(node);
+        Files.createDirectories(path.getParent());
+        Files.write(path, (value + "\n").getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void writeUevent() throws IOException {
+        StringBuilder uevent = new StringBuilder();
+        uevent.append("POWER_SUPPLY_NAME=battery\n");
+        uevent.append("POWER_SUPPLY_TYPE=Battery\n");
+        uevent.append("POWER_SUPPLY_PRESENT=1\n");
+        for (String[] attribute : BATTERY_ATTRIBUTES) {
+            uevent.append(attribute[1]).append('=').append(mValues.get(attribute[0]))
+                    .append('\n');
+        }
+        Path path = resolve(Constants.NODE_BATTERY_UEVENT);
+        Files.createDirectories(path.getParent());
+        Files.write(path, uevent.toString().getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Discharges for a while, then plugs into a DCP charger, charges at constant current up
+     * to 80%, tapers off in constant voltage up to full and unplugs. Each tick stands for
+     * 30 seconds of battery time so a full cycle plays in a few hundred ticks.
+     */
+    public static class ChargeCycle implements Scenario {
+        private static final int DISCHARGE_TICKS = 60;
+        private static final int CAPACITY_UAH = 4500000;
+        private static final int SECONDS_PER_TICK = 30;
+
+        private long mChargeUah;
+        private boolean mUnplugged;
+
+        @Override
+        public void apply(FakeSysfs sysfs, int tick) throws IOException {
+            if (tick == 0) {
+                mChargeUah = (long) CAPACITY_UAH
+                        * Integer.parseInt(sysfs.get(Constants.NODE_CAPACITY)) / 100;
+            }
+
+            int capacity = (int) (mChargeUah * 100 / CAPACITY_UAH);
+            int current;
+            String status;
+            String usbType;
+            mUnplugged |= capacity >= 100;
+            if (tick < DISCHARGE_TICKS || mUnplugged) {
+                current = -380000 - (tick % 7) * 15000;
+                status = "Discharging";
+                usbType = "[Unknown] SDP CDP DCP";
+            } else if (capacity < 80) {
+                current = 3000000 - (tick % 5) * 20000;
+                status = "Charging";
+                usbType = "Unknown SDP CDP [DCP]";
+            } else {
+                // Constant voltage, the current decays as the battery fills up
+                current = 3000000 * (100 - capacity) / 20 + 50000;
+                status = capacity >= 99 ? "Full" : "Charging";
+                usbType = "Unknown SDP CDP [DCP]";
+            }
+
+            mChargeUah = Math.max(0, Math.min(CAPACITY_UAH,
+                    mChargeUah + (long) current * SECONDS_PER_TICK / 3600));
+            capacity = (int) (mChargeUah * 100 / CAPACITY_UAH);
+
+            int voltage = 3500000 + capacity * 7000 + (current > 0 ? 150000 : 0);
+            int temperature = current > 0 ? Math.min(380, 290 + (tick - DISCHARGE_TICKS) / 4)
+                    : 290 + tick % 3;
+
+            sysfs.set(Constants.NODE_STATUS, status);
+            sysfs.set(Constants.NODE_USB_TYPE, usbType);
+            sysfs.set(Constants.NODE_CURRENT, Integer.toString(current));
+            sysfs.set(Constants.NODE_VOLTAGE, Integer.toString(voltage));
+            sysfs.set(Constants.NODE_CAPACITY, Integer.toString(capacity));
+            sysfs.set(Constants.NODE_CAPACITY_LEVEL, capacity >= 100 ? "Full"
+                    : capacity > 80 ? "High" : capacity > 15 ? "Normal" : "Low");
+            sysfs.set(Constants.NODE_TEMPERATURE, Integer.toString(temperature));
+        }
+    }
+
+    /**
+     * Usage: FakeSysfs [root] [interval_ms] [ticks]
+     */
+    public static void main(String[] args) throws Exception {
+        Path root = Paths.get(args.length > 0 ? args[0] : DEFAULT_ROOT);
+        long intervalMs = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+
+        FakeSysfs sysfs = new FakeSysfs(root).create();
+        System.out.println("Fake sysfs created in " + root);
+        sysfs.play(new ChargeCycle(), ticks, intervalMs);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.host;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.evolution.pixelparts.batteryinfo.BatteryHistoryExport;
+import org.evolution.pixelparts.batteryinfo.BatterySnapshot;
+
+/**
+ * Converts a battery history export to CSV, streaming record by record so exports of
+ * any length convert in constant memory. Fields that were not valid when sampled are
+ * left empty.
+ *
+ * Usage: PixelPartsHistoryCsv input.ppbx [output.csv]
+ * Without an output file the CSV is written to stdout.
+ */
+public class HistoryCsv {
+
+    private static final String HEADER =
+            "timestamp_ms,current_ua,voltage_uv,temperature_deci_c,capacity_percent,status";
+
+    /**
+     * Converts the export read from the given stream.
+     *
+     * @return the number of records converted
+     */
+    public static int convert(InputStream in, Writer out) throws IOException {
+        out.write(HEADER);
+        out.write('\n');
+        final StringBuilder line = new StringBuilder(64);
+        return BatteryHistoryExport.read(in, (timestamp, record) -> {
+            line.setLength(0);
+            line.append(timestamp).append(',');
+            appendField(line, record, BatterySnapshot.FIELD_CURRENT, record.currentNow);
+            appendField(line, record, BatterySnapshot.FIELD_VOLTAGE, record.voltageNow);
+            appendField(line, record, BatterySnapshot.FIELD_TEMPERATURE, record.temperature);
+            appendField(line, record, BatterySnapshot.FIELD_CAPACITY, record.capacity);
+            if (record.has(BatterySnapshot.FIELD_STATUS) && record.status >= 0
+                    && record.status < BatterySnapshot.STATUS_VALUES.length) {
+                line.append(BatterySnapshot.STATUS_VALUES[record.status]);
+            }
+            line.append('\n');
+            out.append(line);
+        });
+    }
+
+    private static void appendField(StringBuilder line, BatterySnapshot record, int field,
+            int value) {
+        if (record.has(field)) {
+            line.append(value);
+        }
+        line.append(',');
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: PixelPartsHistoryCsv input.ppbx [output.csv]");
+            System.exit(1);
+        }
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(args[0])));
+                Writer out = new BufferedWriter(args.length > 1
+                        ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+                        : new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            int records = convert(in, out);
+            out.flush();
+            System.err.println("Converted " + records + " records");
+        }
+    }
+}
@@ -21,6 +21,14 @@ public class Constants {
     public static final String KEY_WATTAGE = "wattage";
     public static final String KEY_HEALTH = "health";
     public static final String KEY_CYCLE_COUNT = "cycle_count";
+    public static final String KEY_ENERGY_DELIVERED = "energy_delivered";
+    public static final String KEY_SESSION_AVERAGE_POWER = "session_average_power";
+    public static final String KEY_TIME_REMAINING = "time_remaining";
+    public static final String KEY_CURRENT_STATISTICS = "current_statistics";
+    public static final String KEY_WATTAGE_STATISTICS = "wattage_statistics";
+    public static final String KEY_TEMPERATURE_STATISTICS = "temperature_statistics";
+    public static final String NODE_POWER_SUPPLY_CLASS = "/sys/class/power_supply";
+    public static final String NODE_BATTERY_UEVENT = "/sys/class/power_supply/battery/uevent";
     public static final String NODE_TECHNOLOGY = "/sys/class/power_supply/battery/technology";
     public static final String NODE_STATUS = "/sys/class/power_supply/battery/status";
     public static final String NODE_USB_TYPE = "/sys/class/power_supply/usb/usb_type";
@@ -43,6 +51,10 @@ public class Constants {
     public static final String KEY_AUTO_HBM_THRESHOLD = "auto_hbm_threshold";
     public static final String KEY_AUTO_HBM_ENABLE_TIME = "auto_hbm_enable_time";
     public static final String KEY_AUTO_HBM_DISABLE_TIME = "auto_hbm_disable_time";
+    public static final String KEY_AUTO_HBM_HYSTERESIS = "auto_hbm_hysteresis";
+    public static final String KEY_AUTO_HBM_FILTER = "auto_hbm_filter";
+    public static final String KEY_AUTO_HBM_MEDIAN_WINDOW = "auto_hbm_median_window";
+    public static final String KEY_AUTO_HBM_EWMA_TIME = "auto_hbm_ewma_time";
     public static final String KEY_CURRENT_LUX_LEVEL = "current_lux_level";
     public static final String NODE_HBM = "/sys/class/backlight/panel0-backlight/hbm_mode";
 
@@ -10,6 +10,7 @@ import android.content.Context;
 import android.content.Intent;
 
 import org.evolution.pixelparts.autohbm.AutoHbm;
+import org.evolution.pixelparts.batteryinfo.BatteryHistoryJobService;
 import org.evolution.pixelparts.fastcharge.FastCharge;
 import org.evolution.pixelparts.pixeltorch.*;
 import org.evolution.pixelparts.saturation.Saturation;
@@ -27,8 +28,12 @@ public class Startup extends BroadcastReceiver {
         // Auto hbm
         AutoHbm.toggleAutoHbmService(context);
 
-        // Fast charge
-        FastCharge.restoreFastChargeSetting(context);
+        // Battery history
+        BatteryHistoryJobService.schedule(context);
+
+        // Fast charge, the write is queued so keep the receiver alive until it is done
+        final PendingResult fastChargeResult = goAsync();
+        FastCharge.restoreFastChargeSetting(context, fastChargeResult::finish);
 
         // Pixel torch
         PixelTorch.togglePixelTorchService(context);
@@ -16,6 +16,7 @@ import android.os.Bundle;
 import android.os.UserHandle;
 import android.widget.Switch;
 
+import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragment;
 import androidx.preference.PreferenceManager;
@@ -36,10 +37,13 @@ public class AutoHbm extends PreferenceFragment
             Constants.KEY_AUTO_HBM_THRESHOLD,
             Constants.KEY_AUTO_HBM_ENABLE_TIME,
             Constants.KEY_AUTO_HBM_DISABLE_TIME,
+            Constants.KEY_AUTO_HBM_HYSTERESIS,
+            Constants.KEY_AUTO_HBM_FILTER,
             Constants.KEY_CURRENT_LUX_LEVEL
     };
 
     private CustomSeekBarPreference mAutoHbmThresholdPreference;
+    private ListPreference mAutoHbmFilterPreference;
     private MainSwitchPreference mAutoHbmSwitch;
     private SensorManager mSensorManager;
     private SharedPreferences mSharedPrefs;
@@ -63,6 +67,9 @@ public class AutoHbm extends PreferenceFragment
         mAutoHbmThresholdPreference = findPreference(Constants.KEY_AUTO_HBM_THRESHOLD);
         mAutoHbmThresholdPreference.setOnPreferenceChangeListener(this);
 
+        mAutoHbmFilterPreference = findPreference(Constants.KEY_AUTO_HBM_FILTER);
+        mAutoHbmFilterPreference.setOnPreferenceChangeListener(this);
+
         mCurrentLuxLevelPreference = findPreference(Constants.KEY_CURRENT_LUX_LEVEL);
 
         mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
@@ -107,6 +114,10 @@ public class AutoHbm extends PreferenceFragment
             updateCurrentLuxLevelPreference(mCurrentLux, threshold);
             return true;
         }
+        if (preference == mAutoHbmFilterPreference) {
+            toggleFilterPreferencesVisibility(mAutoHbmSwitch.isChecked(), (String) newValue);
+            return true;
+        }
         return false;
     }
 
@@ -145,6 +156,16 @@ public class AutoHbm extends PreferenceFragment
                 pref.setVisible(show);
             }
         }
+        toggleFilterPreferencesVisibility(show, mAutoHbmFilterPreference.getValue());
+    }
+
+    // Only the setting of the selected light smoothing filter is shown
+    private void toggleFilterPreferencesVisibility(boolean show, String filter) {
+        int mode = LuxFilter.parseMode(filter, AutoHbmConfig.DEFAULT_FILTER);
+        findPreference(Constants.KEY_AUTO_HBM_MEDIAN_WINDOW)
+                .setVisible(show && mode == LuxFilter.MODE_MEDIAN);
+        findPreference(Constants.KEY_AUTO_HBM_EWMA_TIME)
+                .setVisible(show && mode == LuxFilter.MODE_EWMA);
     }
 
     public static void toggleAutoHbmService(Context context) {
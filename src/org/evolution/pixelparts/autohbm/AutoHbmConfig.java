@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.autohbm;
+
+/**
+ * Immutable snapshot of the auto HBM settings.
+ *
+ * The service builds a new instance whenever one of the settings changes and swaps it
+ * into the {@link AutoHbmController} with a single reference write, so the sensor
+ * callback reads plain final fields instead of looking preferences up on every event.
+ */
+public final class AutoHbmConfig {
+
+    // Defaults, matching autohbm.xml
+    public static final int DEFAULT_THRESHOLD = 20000;
+    public static final int DEFAULT_ENABLE_TIME = 0;
+    public static final int DEFAULT_DISABLE_TIME = 1;
+    public static final int DEFAULT_HYSTERESIS = 20;
+    public static final int DEFAULT_FILTER = LuxFilter.MODE_MEDIAN;
+    public static final int DEFAULT_MEDIAN_WINDOW = 5;
+    public static final int DEFAULT_EWMA_TIME = 1000;
+
+    // Share of the threshold below which the light sensor may run at the slow rate
+    private static final int FAST_RATE_THRESHOLD_PERCENT = 50;
+
+    public static final AutoHbmConfig DEFAULT = new AutoHbmConfig(DEFAULT_THRESHOLD,
+            DEFAULT_ENABLE_TIME, DEFAULT_DISABLE_TIME, DEFAULT_HYSTERESIS, DEFAULT_FILTER,
+            DEFAULT_MEDIAN_WINDOW, DEFAULT_EWMA_TIME);
+
+    // Filtered lux above which HBM is enabled
+    public final int threshold;
+    // Filtered lux the light has to drop below again before HBM is disabled
+    public final int exitThreshold;
+    // Filtered lux from which on the light sensor runs at the fast rate
+    public final int fastRateThreshold;
+    // How long the light has to stay above the threshold before HBM is enabled
+    public final long enableTimeNanos;
+    // How long HBM stays enabled at least before the light may disable it again
+    public final long disableTimeNanos;
+
+    // Smoothing in front of the thresholds, see LuxFilter
+    public final int filterMode;
+    public final int medianWindow;
+    public final long ewmaTimeConstantNanos;
+
+    /**
+     * @param threshold    lux threshold
+     * @param enableTime   enable delay in seconds, as stored in the preferences
+     * @param disableTime  disable delay in seconds, as stored in the preferences
+     * @param hysteresis   how far below the threshold the light has to drop, in percent
+     * @param filterMode   one of the LuxFilter.MODE_* constants
+     * @param medianWindow median window in samples
+     * @param ewmaTime     time constant of the average in milliseconds
+     */
+    public AutoHbmConfig(int threshold, int enableTime, int disableTime, int hysteresis,
+            int filterMode, int medianWindow, int ewmaTime) {
+        this.threshold = threshold;
+        this.exitThreshold = (int) (threshold * (100L - hysteresis) / 100);
+        this.fastRateThreshold = (int) (threshold * (long) FAST_RATE_THRESHOLD_PERCENT / 100);
+        this.enableTimeNanos = enableTime * 1000000000L;
+        this.disableTimeNanos = disableTime * 1000000000L;
+        this.filterMode = filterMode;
+        this.medianWindow = medianWindow;
+        this.ewmaTimeConstantNanos = ewmaTime * 1000000L;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.autohbm;
+
+/**
+ * Decides when auto HBM turns high brightness mode on and off from ambient light samples.
+ *
+ * Samples first pass a {@link LuxFilter}. HBM is enabled once the filtered light stayed
+ * above the threshold for the configured enable time, unless the keyguard is showing,
+ * and disabled once it dropped below the lower exit threshold after HBM was on for at
+ * least the disable time. The gap between the two thresholds keeps light hovering
+ * around the threshold from toggling HBM.
+ *
+ * The controller also tells whether the light sensor should run at the fast rate. It
+ * does while the light is near or above the threshold or HBM is on, so HBM reacts
+ * quickly. Once the light stayed far below the threshold for a while, the sensor may
+ * be slowed down and batched.
+ *
+ * Samples are timestamped with the monotonic sensor clock (SensorEvent.timestamp), so
+ * wall clock changes do not affect the delays. The controller does not touch the panel
+ * itself, it only returns what should happen, which keeps it free of Android
+ * dependencies and lets recorded light traces be replayed on the host.
+ *
+ * Processing a sample is pure arithmetic and allocates nothing. Samples must come from
+ * a single thread, {@link #setConfig} may be called from any thread.
+ */
+public class AutoHbmController {
+
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_ENABLE = 1;
+    public static final int ACTION_DISABLE = 2;
+
+    // How long the light has to stay far from the threshold before the slow rate is used
+    private static final long SLOW_RATE_DELAY_NANOS = 10000000000L;
+
+    private volatile AutoHbmConfig mConfig;
+
+    private final LuxFilter mFilter = new LuxFilter();
+    // Config the filter was set up for
+    private AutoHbmConfig mFilterConfig;
+
+    private boolean mCrossedThreshold;
+    private long mCrossedThresholdTime;
+    private long mLastTriggerTime;
+
+    private boolean mFastRate = true;
+    private long mLastNearTime;
+
+    public AutoHbmController(AutoHbmConfig config) {
+        mConfig = config;
+    }
+
+    /**
+     * Swaps in new settings, used from the next sample on.
+     */
+    public void setConfig(AutoHbmConfig config) {
+        mConfig = config;
+    }
+
+    public AutoHbmConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Processes one ambient light sample.
+     *
+     * @param timestampNanos  the sample time in nanoseconds of the sensor clock
+     * @param lux             the raw ambient light level
+     * @param hbmEnabled      whether HBM is currently on or being turned on after an
+     *                        ACTION_ENABLE; pass false if someone else turned it on, so
+     *                        it is never disabled by ACTION_DISABLE
+     * @param keyguardShowing whether the keyguard is showing
+     * @return one of the ACTION_* constants
+     */
+    public int onLightSample(long timestampNanos, float lux, boolean hbmEnabled,
+            boolean keyguardShowing) {
+        AutoHbmConfig config = mConfig;
+        if (config != mFilterConfig) {
+            mFilter.configure(config.filterMode, config.medianWindow,
+                    config.ewmaTimeConstantNanos);
+            mFilterConfig = config;
+        }
+        lux = mFilter.filter(timestampNanos, lux);
+
+        int action = decide(config, timestampNanos, lux, hbmEnabled, keyguardShowing);
+
+        if (hbmEnabled || action == ACTION_ENABLE || mCrossedThreshold
+                || lux >= config.fastRateThreshold) {
+            mLastNearTime = timestampNanos;
+            mFastRate = true;
+        } else if (timestampNanos - mLastNearTime >= SLOW_RATE_DELAY_NANOS) {
+            mFastRate = false;
+        }
+        return action;
+    }
+
+    private int decide(AutoHbmConfig config, long timestampNanos, float lux,
+            boolean hbmEnabled, boolean keyguardShowing) {
+        if (mCrossedThreshold ? lux >= config.exitThreshold : lux > config.threshold) {
+            if (!mCrossedThreshold) {
+                mCrossedThreshold = true;
+                mCrossedThresholdTime = timestampNanos;
+            } else if (timestampNanos - mCrossedThresholdTime >= config.enableTimeNanos
+                    && !hbmEnabled && !keyguardShowing) {
+                mLastTriggerTime = timestampNanos;
+                return ACTION_ENABLE;
+            }
+        } else {
+            mCrossedThreshold = false;
+
+            if (hbmEnabled && timestampNanos - mLastTriggerTime >= config.disableTimeNanos) {
+                return ACTION_DISABLE;
+            }
+        }
+        return ACTION_NONE;
+    }
+
+    /**
+     * Returns whether the light sensor should run at the fast rate, as of the last sample.
+     */
+    public boolean isFastRate() {
+        return mFastRate;
+    }
+
+    /**
+     * Forgets the light history, e.g. when the sensor is turned off with the screen. The
+     * sensor starts out at the fast rate again.
+     */
+    public void reset() {
+        mCrossedThreshold = false;
+        mCrossedThresholdTime = 0;
+        mLastTriggerTime = 0;
+        mFastRate = true;
+        mLastNearTime = 0;
+        mFilter.reset();
+    }
+}
@@ -13,92 +13,160 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.util.Log;
 import androidx.preference.PreferenceManager;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.evolution.pixelparts.Constants;
-import org.evolution.pixelparts.utils.FileUtils;
+import org.evolution.pixelparts.utils.SysfsWriter;
 
 public class AutoHbmService extends Service {
 
-    private static boolean mAutoHbmActive = false;
-    private ExecutorService mExecutorService;
+    private static final String TAG = AutoHbmService.class.getSimpleName();
+
+    // How often the HBM node is read back while the screen is on
+    private static final long HBM_RECONCILE_INTERVAL_MS = 60000;
+
+    // Light sensor rates: the fast one reports every event right away, the slow one lets
+    // the sensor hub batch events while the light is far from the threshold
+    private static final int FAST_SAMPLING_PERIOD_US = 200000;
+    private static final int SLOW_SAMPLING_PERIOD_US = 1000000;
+    private static final int SLOW_MAX_REPORT_LATENCY_US = 3000000;
+
+    private ScheduledExecutorService mExecutorService;
+    private HbmStateMachine mHbmStateMachine;
+    // Only touched on mExecutorService
+    private ScheduledFuture<?> mHbmReconcileFuture;
+    private boolean mLightSensorActive;
+
+    // Rate the light sensor was last requested at, only touched on the main thread
+    private boolean mSensorFastRate = true;
 
     private SensorManager mSensorManager;
     Sensor mLightSensor;
 
     private SharedPreferences mSharedPrefs;
+    private KeyguardManager mKeyguardManager;
+
+    private final AutoHbmController mController = new AutoHbmController(AutoHbmConfig.DEFAULT);
+    // Tracked from screen and user present broadcasts instead of asked for per event
+    private volatile boolean mKeyguardShowing;
+
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPrefs, String key) {
+            if (Constants.KEY_AUTO_HBM_THRESHOLD.equals(key)
+                    || Constants.KEY_AUTO_HBM_ENABLE_TIME.equals(key)
+                    || Constants.KEY_AUTO_HBM_DISABLE_TIME.equals(key)
+                    || Constants.KEY_AUTO_HBM_HYSTERESIS.equals(key)
+                    || Constants.KEY_AUTO_HBM_FILTER.equals(key)
+                    || Constants.KEY_AUTO_HBM_MEDIAN_WINDOW.equals(key)
+                    || Constants.KEY_AUTO_HBM_EWMA_TIME.equals(key)) {
+                mController.setConfig(loadConfig(sharedPrefs));
+            }
+        }
+    };
+
+    private static AutoHbmConfig loadConfig(SharedPreferences sharedPrefs) {
+        return new AutoHbmConfig(
+                sharedPrefs.getInt(Constants.KEY_AUTO_HBM_THRESHOLD,
+                        AutoHbmConfig.DEFAULT_THRESHOLD),
+                sharedPrefs.getInt(Constants.KEY_AUTO_HBM_ENABLE_TIME,
+                        AutoHbmConfig.DEFAULT_ENABLE_TIME),
+                sharedPrefs.getInt(Constants.KEY_AUTO_HBM_DISABLE_TIME,
+                        AutoHbmConfig.DEFAULT_DISABLE_TIME),
+                sharedPrefs.getInt(Constants.KEY_AUTO_HBM_HYSTERESIS,
+                        AutoHbmConfig.DEFAULT_HYSTERESIS),
+                LuxFilter.parseMode(sharedPrefs.getString(Constants.KEY_AUTO_HBM_FILTER, null),
+                        AutoHbmConfig.DEFAULT_FILTER),
+                sharedPrefs.getInt(Constants.KEY_AUTO_HBM_MEDIAN_WINDOW,
+                        AutoHbmConfig.DEFAULT_MEDIAN_WINDOW),
+                sharedPrefs.getInt(Constants.KEY_AUTO_HBM_EWMA_TIME,
+                        AutoHbmConfig.DEFAULT_EWMA_TIME));
+    }
 
     public void activateLightSensorRead() {
         submit(() -> {
         mSensorManager = (SensorManager) getApplicationContext().getSystemService(Context.SENSOR_SERVICE);
         mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
-        mSensorManager.registerListener(mSensorEventListener, mLightSensor, SensorManager.SENSOR_DELAY_NORMAL);
+        mLightSensorActive = true;
+        registerLightSensor(true);
+        // HBM may have been reset while the screen was off
+        mHbmStateMachine.reconcile();
+        if (mHbmReconcileFuture == null) {
+            mHbmReconcileFuture = mExecutorService.scheduleWithFixedDelay(
+                    mHbmStateMachine::reconcile, HBM_RECONCILE_INTERVAL_MS,
+                    HBM_RECONCILE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
         });
     }
 
     public void deactivateLightSensorRead() {
         submit(() -> {
+        mLightSensorActive = false;
         mSensorManager.unregisterListener(mSensorEventListener);
-        mAutoHbmActive = false;
-        enableHbm(false);
+        if (mHbmReconcileFuture != null) {
+            mHbmReconcileFuture.cancel(false);
+            mHbmReconcileFuture = null;
+        }
+        mHbmStateMachine.setEnabled(false);
+        mHbmStateMachine.close();
         });
     }
 
-    private void enableHbm(boolean enable) {
-        if (enable) {
-            FileUtils.writeValue(Constants.NODE_HBM, "1");
+    // Runs on mExecutorService
+    private void registerLightSensor(boolean fastRate) {
+        mSensorManager.unregisterListener(mSensorEventListener);
+        if (fastRate) {
+            mSensorManager.registerListener(mSensorEventListener, mLightSensor,
+                    FAST_SAMPLING_PERIOD_US);
         } else {
-            FileUtils.writeValue(Constants.NODE_HBM, "0");
+            mSensorManager.registerListener(mSensorEventListener, mLightSensor,
+                    SLOW_SAMPLING_PERIOD_US, SLOW_MAX_REPORT_LATENCY_US);
         }
     }
 
-    private boolean isCurrentlyEnabled() {
-        String fileValue = FileUtils.getFileValue(Constants.NODE_HBM, "0");
-        return fileValue.equals("1") ? true : false;
+    private void updateLightSensorRate(boolean fastRate) {
+        if (fastRate == mSensorFastRate) {
+            return;
+        }
+        mSensorFastRate = fastRate;
+        submit(() -> {
+            // The screen may have gone off since
+            if (mLightSensorActive) {
+                registerLightSensor(fastRate);
+            }
+        });
     }
 
-    SensorEventListener mSensorEventListener = new SensorEventListener() {
-        private boolean mCrossedThreshold = false;
-        private long mCrossedThresholdTime = 0;
-        private long mLastTriggerTime = 0;
+    private final SysfsWriter.Callback mHbmWriteCallback = new SysfsWriter.Callback() {
+        @Override
+        public void onWriteComplete(String node, String value, boolean success) {
+            if (!success) {
+                Log.e(TAG, "Could not write " + value + " to " + node);
+            }
+        }
+    };
 
+    SensorEventListener mSensorEventListener = new SensorEventListener() {
         @Override
         public void onSensorChanged(SensorEvent event) {
-            float lux = event.values[0];
-            KeyguardManager km =
-                    (KeyguardManager) getSystemService(getApplicationContext().KEYGUARD_SERVICE);
-            boolean keyguardShowing = km.inKeyguardRestrictedInputMode();
-            int luxThreshold = mSharedPrefs.getInt(Constants.KEY_AUTO_HBM_THRESHOLD, 20000);
-            int timeToEnableHbm = mSharedPrefs.getInt(Constants.KEY_AUTO_HBM_ENABLE_TIME, 0);
-            int timeToDisableHbm = mSharedPrefs.getInt(Constants.KEY_AUTO_HBM_DISABLE_TIME, 1);
-
-            if (lux > luxThreshold) {
-                if (!mCrossedThreshold) {
-                    mCrossedThreshold = true;
-                    mCrossedThresholdTime = System.currentTimeMillis();
-                } else {
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - mCrossedThresholdTime >= timeToEnableHbm * 1000 && (!mAutoHbmActive || !isCurrentlyEnabled()) && !keyguardShowing) {
-                        mAutoHbmActive = true;
-                        enableHbm(true);
-                        mLastTriggerTime = currentTime;
-                    }
-                }
-            } else {
-                mCrossedThreshold = false;
-
-                if (mAutoHbmActive) {
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - mLastTriggerTime >= timeToDisableHbm * 1000) {
-                        mAutoHbmActive = false;
-                        enableHbm(false);
-                    }
-                }
+            switch (mController.onLightSample(event.timestamp, event.values[0],
+                    mHbmStateMachine.isOwned(), mKeyguardShowing)) {
+                case AutoHbmController.ACTION_ENABLE:
+                    mHbmStateMachine.setEnabled(true);
+                    break;
+                case AutoHbmController.ACTION_DISABLE:
+                    mHbmStateMachine.setEnabled(false);
+                    break;
             }
+            updateLightSensorRate(mController.isFastRate());
         }
 
         @Override
@@ -111,20 +179,35 @@ public class AutoHbmService extends Service {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
+                // The keyguard may not have been shown if the screen was only off briefly
+                mKeyguardShowing = mKeyguardManager.isKeyguardLocked();
+                mSensorFastRate = true;
                 activateLightSensorRead();
             } else if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
+                mKeyguardShowing = true;
+                // Light seen before the screen went off says nothing about after
+                mController.reset();
                 deactivateLightSensorRead();
+            } else if (intent.getAction().equals(Intent.ACTION_USER_PRESENT)) {
+                mKeyguardShowing = false;
             }
         }
     };
 
     @Override
     public void onCreate() {
-        mExecutorService = Executors.newSingleThreadExecutor();
+        mExecutorService = Executors.newSingleThreadScheduledExecutor();
+        mHbmStateMachine = new HbmStateMachine(Constants.NODE_HBM, SysfsWriter.getInstance(),
+                mExecutorService, mHbmWriteCallback);
         IntentFilter screenStateFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
         screenStateFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        screenStateFilter.addAction(Intent.ACTION_USER_PRESENT);
         registerReceiver(mScreenStateReceiver, screenStateFilter);
         mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        mSharedPrefs.registerOnSharedPreferenceChangeListener(mPreferenceListener);
+        mController.setConfig(loadConfig(mSharedPrefs));
+        mKeyguardManager = getSystemService(KeyguardManager.class);
+        mKeyguardShowing = mKeyguardManager.isKeyguardLocked();
         PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         if (pm.isInteractive()) {
             activateLightSensorRead();
@@ -144,6 +227,7 @@ public class AutoHbmService extends Service {
     public void onDestroy() {
         super.onDestroy();
         unregisterReceiver(mScreenStateReceiver);
+        mSharedPrefs.unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
         PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         if (pm.isInteractive()) {
             deactivateLightSensorRead();
@@ -12,13 +12,13 @@ import androidx.preference.PreferenceManager;
 
 import org.evolution.pixelparts.Constants;
 import org.evolution.pixelparts.R;
-import org.evolution.pixelparts.utils.FileUtils;
+import org.evolution.pixelparts.utils.NodeCapabilityCache;
 
 public class AutoHbmTileService extends TileService {
 
     private void updateTile(boolean enabled) {
         final Tile tile = getQsTile();
-        if (FileUtils.isFileWritable(Constants.NODE_HBM)) {
+        if (NodeCapabilityCache.isWritable(Constants.NODE_HBM)) {
             tile.setState(enabled ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
             String subtitle = enabled ? getString(R.string.tile_on) : getString(R.string.tile_off);
             tile.setSubtitle(subtitle);
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.autohbm;
+
+import java.util.concurrent.Executor;
+
+import org.evolution.pixelparts.utils.SysfsNode;
+import org.evolution.pixelparts.utils.SysfsWriter;
+
+/**
+ * In-memory state of the panel HBM mode.
+ *
+ * The state follows the writes issued through {@link SysfsWriter}: enabling moves to
+ * ARMING until the write completes and then to ON, disabling moves through DISARMING to
+ * OFF. The node itself is only read by {@link #reconcile()}, which callers run when the
+ * node may have been changed behind our back, e.g. on screen on or periodically; a
+ * failed write schedules one on its own.
+ *
+ * HBM found on by {@link #reconcile()} was turned on by someone else and is not owned,
+ * see {@link #isOwned()}. Only turning HBM on through {@link #setEnabled} takes
+ * ownership of it.
+ *
+ * State transitions are thread-safe. {@link #reconcile()} and {@link #close()} use the
+ * node handle and must only run on the executor passed in.
+ */
+public class HbmStateMachine implements SysfsWriter.Callback {
+
+    public static final int STATE_OFF = 0;
+    public static final int STATE_ARMING = 1;
+    public static final int STATE_ON = 2;
+    public static final int STATE_DISARMING = 3;
+
+    private static final String VALUE_OFF = "0";
+    private static final String VALUE_ON = "1";
+
+    private final String mNode;
+    private final SysfsWriter mWriter;
+    private final Executor mExecutor;
+    private final SysfsWriter.Callback mCallback;
+
+    // Only touched on mExecutor
+    private final SysfsNode mNodeReader;
+
+    // Guarded by this
+    private int mState = STATE_OFF;
+    private boolean mOwned;
+
+    /**
+     * @param node     the HBM mode node
+     * @param writer   the writer to queue writes on
+     * @param executor runs reconciliations after failed writes
+     * @param callback notified of every completed write, may be null
+     */
+    public HbmStateMachine(String node, SysfsWriter writer, Executor executor,
+            SysfsWriter.Callback callback) {
+        mNode = node;
+        mWriter = writer;
+        mExecutor = executor;
+        mCallback = callback;
+        mNodeReader = new SysfsNode(node, 16);
+    }
+
+    /**
+     * Returns the current state, one of the STATE_* constants.
+     */
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Returns whether HBM is on or being turned on.
+     */
+    public synchronized boolean isEnabled() {
+        return mState == STATE_ON || mState == STATE_ARMING;
+    }
+
+    /**
+     * Returns whether HBM is on or being turned on and was turned on through
+     * {@link #setEnabled}, rather than by someone else.
+     */
+    public synchronized boolean isOwned() {
+        return mOwned && isEnabled();
+    }
+
+    /**
+     * Turns HBM on or off, unless it already is or is being switched that way. Turning it
+     * on takes ownership of it even if it already was on.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        mOwned = enabled;
+        if (enabled == isEnabled()) {
+            return;
+        }
+        mState = enabled ? STATE_ARMING : STATE_DISARMING;
+        mWriter.write(mNode, enabled ? VALUE_ON : VALUE_OFF, this);
+    }
+
+    @Override
+    public void onWriteComplete(String node, String value, boolean success) {
+        boolean on = VALUE_ON.equals(value);
+        synchronized (this) {
+            // Only the latest write reports back, an earlier one may have been replaced
+            if (mState == (on ? STATE_ARMING : STATE_DISARMING)) {
+                if (success) {
+                    mState = on ? STATE_ON : STATE_OFF;
+                } else {
+                    // Assume the node kept its previous value until it is read back
+                    mState = on ? STATE_OFF : STATE_ON;
+                }
+            }
+        }
+        if (!success) {
+            mExecutor.execute(this::reconcile);
+        }
+        if (mCallback != null) {
+            mCallback.onWriteComplete(node, value, success);
+        }
+    }
+
+    /**
+     * Reads the node and adopts its value if it disagrees with the tracked state. Does
+     * nothing while a write is in flight, its completion settles the state.
+     */
+    public void reconcile() {
+        int value = mNodeReader.readInt(-1);
+        if (value < 0) {
+            return;
+        }
+        boolean nodeOn = value != 0;
+        synchronized (this) {
+            if (mState == STATE_ARMING || mState == STATE_DISARMING) {
+                return;
+            }
+            if (nodeOn != (mState == STATE_ON)) {
+                // Changed behind our back, make sure the next write is not dropped
+                mWriter.invalidate(mNode);
+                mState = nodeOn ? STATE_ON : STATE_OFF;
+                mOwned = false;
+            }
+        }
+    }
+
+    /**
+     * Releases the node handle, it is reopened by the next {@link #reconcile()}.
+     */
+    public void close() {
+        mNodeReader.close();
+    }
+}
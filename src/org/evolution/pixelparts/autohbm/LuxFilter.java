@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.autohbm;
+
+/**
+ * Smooths ambient light samples before they are compared against the HBM thresholds, so
+ * a single dip under foliage or a passing shadow in a car does not toggle HBM.
+ *
+ * Two filters are available: the median of the last N samples, which drops short spikes
+ * entirely, and an exponentially weighted moving average with a time constant, which
+ * follows the light smoothly regardless of the sensor rate.
+ *
+ * The median keeps the window in a preallocated ring buffer plus a sorted copy that is
+ * updated by insertion, so filtering a sample never allocates, even after the filter is
+ * reconfigured. Instances are not thread-safe.
+ */
+public class LuxFilter {
+
+    public static final int MODE_NONE = 0;
+    public static final int MODE_MEDIAN = 1;
+    public static final int MODE_EWMA = 2;
+
+    // Preference values of the modes, indexes are the mode constants
+    public static final String[] MODE_NAMES = { "none", "median", "ewma" };
+
+    public static final int MAX_MEDIAN_WINDOW = 15;
+
+    private final float[] mRing = new float[MAX_MEDIAN_WINDOW];
+    private final float[] mSorted = new float[MAX_MEDIAN_WINDOW];
+
+    private int mMode = MODE_NONE;
+    private int mWindow = 1;
+    private double mTimeConstantNanos = 1;
+
+    // Median state, mHead is the oldest sample once the window is full
+    private int mHead;
+    private int mCount;
+
+    // Average state
+    private boolean mHasAverage;
+    private float mAverage;
+    private long mLastTimestamp;
+
+    /**
+     * Returns the mode constant of the given preference value, or defMode if unknown.
+     */
+    public static int parseMode(String name, int defMode) {
+        for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+            if (MODE_NAMES[mode].equals(name)) {
+                return mode;
+            }
+        }
+        return defMode;
+    }
+
+    /**
+     * Selects the filter and its parameters and drops the samples seen so far.
+     *
+     * @param mode              one of the MODE_* constants
+     * @param window            median window in samples, clamped to 1..MAX_MEDIAN_WINDOW
+     * @param timeConstantNanos time constant of the average
+     */
+    public void configure(int mode, int window, long timeConstantNanos) {
+        mMode = mode;
+        mWindow = Math.max(1, Math.min(window, MAX_MEDIAN_WINDOW));
+        mTimeConstantNanos = Math.max(1, timeConstantNanos);
+        reset();
+    }
+
+    /**
+     * Adds a sample and returns the filtered light level.
+     *
+     * @param timestampNanos the sample time in nanoseconds of the sensor clock
+     * @param lux            the raw light level
+     */
+    public float filter(long timestampNanos, float lux) {
+        switch (mMode) {
+            case MODE_MEDIAN:
+                return addMedian(lux);
+            case MODE_EWMA:
+                return addAverage(timestampNanos, lux);
+            default:
+                return lux;
+        }
+    }
+
+    private float addMedian(float lux) {
+        if (mCount == mWindow) {
+            removeSorted(mRing[mHead]);
+        }
+        mRing[mHead] = lux;
+        mHead = mHead + 1 == mWindow ? 0 : mHead + 1;
+        insertSorted(lux);
+
+        int middle = mCount >> 1;
+        if ((mCount & 1) != 0) {
+            return mSorted[middle];
+        }
+        return (mSorted[middle - 1] + mSorted[middle]) / 2;
+    }
+
+    private void insertSorted(float lux) {
+        int i = mCount++;
+        while (i > 0 && mSorted[i - 1] > lux) {
+            mSorted[i] = mSorted[i - 1];
+            i--;
+        }
+        mSorted[i] = lux;
+    }
+
+    private void removeSorted(float lux) {
+        int i = 0;
+        while (i < mCount - 1 && mSorted[i] != lux) {
+            i++;
+        }
+        mCount--;
+        System.arraycopy(mSorted, i + 1, mSorted, i, mCount - i);
+    }
+
+    private float addAverage(long timestampNanos, float lux) {
+        if (!mHasAverage) {
+            mHasAverage = true;
+            mAverage = lux;
+        } else {
+            long dt = timestampNanos - mLastTimestamp;
+            if (dt > 0) {
+                mAverage += (lux - mAverage) * (float) -Math.expm1(-dt / mTimeConstantNanos);
+            }
+        }
+        mLastTimestamp = timestampNanos;
+        return mAverage;
+    }
+
+    /**
+     * Drops the samples seen so far, the next sample passes through unchanged.
+     */
+    public void reset() {
+        mHead = 0;
+        mCount = 0;
+        mHasAverage = false;
+        mAverage = 0;
+        mLastTimestamp = 0;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+/**
+ * Picks the delay until the next battery sample.
+ *
+ * Sampling runs at the minimum interval while something is happening: the charger was
+ * plugged or unplugged, the current is swinging or the temperature is climbing. While
+ * readings stay stable the interval doubles after every sample, up to the maximum.
+ *
+ * Instances are not thread-safe.
+ */
+public class AdaptiveSampleScheduler {
+
+    // Current change between two samples that counts as a swing
+    private static final int CURRENT_SWING_UA = 150000;
+    // Temperature increase between two samples that counts as climbing
+    private static final int TEMPERATURE_CLIMB_DECI_C = 3;
+
+    private long mMinIntervalMs;
+    private long mMaxIntervalMs;
+    private long mIntervalMs;
+
+    private boolean mHasPrevious;
+    private int mPreviousStatus;
+    private int mPreviousUSBType;
+    private int mPreviousCurrent;
+    private int mPreviousTemperature;
+
+    public AdaptiveSampleScheduler(long minIntervalMs, long maxIntervalMs) {
+        setBounds(minIntervalMs, maxIntervalMs);
+        mIntervalMs = mMinIntervalMs;
+    }
+
+    /**
+     * Sets the interval bounds, the current interval is clamped into them.
+     */
+    public void setBounds(long minIntervalMs, long maxIntervalMs) {
+        mMinIntervalMs = Math.max(1, minIntervalMs);
+        mMaxIntervalMs = Math.max(mMinIntervalMs, maxIntervalMs);
+        mIntervalMs = Math.max(mMinIntervalMs, Math.min(mIntervalMs, mMaxIntervalMs));
+    }
+
+    /**
+     * Drops back to the minimum interval, e.g. after an external change notification.
+     */
+    public void reset() {
+        mIntervalMs = mMinIntervalMs;
+    }
+
+    /**
+     * Feeds a new sample and returns the delay until the next one.
+     */
+    public long nextInterval(BatterySnapshot snapshot) {
+        boolean transition = !mHasPrevious
+                || snapshot.status != mPreviousStatus
+                || snapshot.usbType != mPreviousUSBType
+                || Math.abs(snapshot.currentNow - mPreviousCurrent) >= CURRENT_SWING_UA
+                || snapshot.temperature - mPreviousTemperature >= TEMPERATURE_CLIMB_DECI_C;
+
+        mHasPrevious = true;
+        mPreviousStatus = snapshot.status;
+        mPreviousUSBType = snapshot.usbType;
+        mPreviousCurrent = snapshot.currentNow;
+        mPreviousTemperature = snapshot.temperature;
+
+        if (transition) {
+            mIntervalMs = mMinIntervalMs;
+        } else {
+            mIntervalMs = Math.min(mIntervalMs * 2, mMaxIntervalMs);
+        }
+        return mIntervalMs;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compact columnar export format for {@link BatteryHistoryStore} records.
+ *
+ * The stream starts with the magic "PPBX" and a version byte, followed by blocks of up to
+ * {@link #BLOCK_SIZE} records and a terminating empty block. A block is the varint record
+ * count followed by one column per stored field, in the order timestamp, current,
+ * voltage, temperature, capacity, status, valid fields. Each value is stored as the
+ * zig-zag varint of its difference to the previous value of the same column, carried
+ * over across blocks, so slowly changing values at 1 Hz mostly take a single byte.
+ *
+ * Both directions stream through fixed-size buffers.
+ */
+public class BatteryHistoryExport {
+
+    public static final String FILE_EXTENSION = ".ppbx";
+    public static final String MIME_TYPE = "application/octet-stream";
+
+    public static final int BLOCK_SIZE = 4096;
+
+    private static final byte[] MAGIC = { 'P', 'P', 'B', 'X' };
+    private static final int VERSION = 1;
+
+    private static final int COLUMN_TIMESTAMP = 0;
+    private static final int COLUMN_CURRENT = 1;
+    private static final int COLUMN_VOLTAGE = 2;
+    private static final int COLUMN_TEMPERATURE = 3;
+    private static final int COLUMN_CAPACITY = 4;
+    private static final int COLUMN_STATUS = 5;
+    private static final int COLUMN_VALID = 6;
+    private static final int COLUMN_COUNT = 7;
+
+    // A 64 bit varint takes at most 10 bytes
+    private static final int MAX_VARINT_SIZE = 10;
+
+    /**
+     * Receives the records of an export while it is read.
+     */
+    public interface RecordCallback {
+        void onRecord(long timestamp, BatterySnapshot record) throws IOException;
+    }
+
+    /**
+     * Writes all records held by the store to the given stream, oldest first. The stream
+     * is not closed.
+     *
+     * @return the number of records written
+     */
+    public static int write(BatteryHistoryStore store, OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+
+        long[][] columns = new long[COLUMN_COUNT][BLOCK_SIZE];
+        long[] previous = new long[COLUMN_COUNT];
+        byte[] buffer = new byte[BLOCK_SIZE * MAX_VARINT_SIZE];
+        BatterySnapshot record = new BatterySnapshot();
+
+        int size = store.size();
+        int written = 0;
+        while (written < size) {
+            int count = 0;
+            while (count < BLOCK_SIZE && written + count < size) {
+                // Within the size read above, which only grows, so never out of range
+                // even for a timestamp that happens to be negative
+                columns[COLUMN_TIMESTAMP][count] = store.read(written + count, record);
+                columns[COLUMN_CURRENT][count] = record.currentNow;
+                columns[COLUMN_VOLTAGE][count] = record.voltageNow;
+                columns[COLUMN_TEMPERATURE][count] = record.temperature;
+                columns[COLUMN_CAPACITY][count] = record.capacity;
+                columns[COLUMN_STATUS][count] = record.status;
+                columns[COLUMN_VALID][count] = record.valid;
+                count++;
+            }
+
+            int length = putVarint(buffer, 0, count);
+            out.write(buffer, 0, length);
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                length = 0;
+                long last = previous[column];
+                long[] values = columns[column];
+                for (int i = 0; i < count; i++) {
+                    length = putVarint(buffer, length, zigZag(values[i] - last));
+                    last = values[i];
+                }
+                previous[column] = last;
+                out.write(buffer, 0, length);
+            }
+            written += count;
+        }
+
+        out.write(0);
+        return written;
+    }
+
+    /**
+     * Reads an export from the given stream, passing every record to the callback. The
+     * record instance is reused between calls.
+     *
+     * @return the number of records read
+     */
+    public static int read(InputStream in, RecordCallback callback) throws IOException {
+        for (byte b : MAGIC) {
+            if (readByte(in) != b) {
+                throw new IOException("Not a battery history export");
+            }
+        }
+        int version = readByte(in);
+        if (version != VERSION) {
+            throw new IOException("Unsupported battery history export version " + version);
+        }
+
+        long[][] columns = new long[COLUMN_COUNT][BLOCK_SIZE];
+        long[] previous = new long[COLUMN_COUNT];
+        BatterySnapshot record = new BatterySnapshot();
+
+        int read = 0;
+        while (true) {
+            long count = getVarint(in);
+            if (count == 0) {
+                return read;
+            }
+            if (count > BLOCK_SIZE) {
+                throw new IOException("Corrupt block size " + count);
+            }
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                long last = previous[column];
+                long[] values = columns[column];
+                for (int i = 0; i < count; i++) {
+                    last += unZigZag(getVarint(in));
+                    values[i] = last;
+                }
+                previous[column] = last;
+            }
+            for (int i = 0; i < count; i++) {
+                record.reset();
+                record.currentNow = (int) columns[COLUMN_CURRENT][i];
+                record.voltageNow = (int) columns[COLUMN_VOLTAGE][i];
+                record.temperature = (int) columns[COLUMN_TEMPERATURE][i];
+                record.capacity = (int) columns[COLUMN_CAPACITY][i];
+                record.status = (int) columns[COLUMN_STATUS][i];
+                record.valid = (int) columns[COLUMN_VALID][i];
+                callback.onRecord(columns[COLUMN_TIMESTAMP][i], record);
+            }
+            read += count;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int putVarint(byte[] buffer, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long getVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt varint");
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Truncated battery history export");
+        }
+        return b;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the battery history at a low rate while battery info and its tile are not
+ * shown, see {@link BatterySampler#recordHistory(Runnable)}.
+ */
+public class BatteryHistoryJobService extends JobService {
+
+    private static final int JOB_ID = 0x50504248; // "PPBH"
+
+    // The shortest period JobScheduler allows
+    private static final long INTERVAL_MS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Schedules the periodic job, replacing a previously scheduled one.
+     */
+    public static void schedule(Context context) {
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, BatteryHistoryJobService.class))
+                .setPeriodic(INTERVAL_MS)
+                .build();
+        context.getSystemService(JobScheduler.class).schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        BatterySampler.getInstance(this).recordHistory(() -> jobFinished(params, false));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // A single snapshot, let it finish and wait for the next period
+        return false;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent battery history kept in a memory-mapped file.
+ *
+ * The file holds a small header followed by a fixed-size ring of fixed-size primitive
+ * records. Appending writes straight into the mapping, so it allocates nothing and the
+ * data survives process death without keeping anything on the Java heap.
+ *
+ * Header layout (32 bytes):
+ *   int magic, int version, int recordSize, int capacity, long written, long reserved
+ * Record layout (24 bytes):
+ *   long timestamp (ms since epoch), int current (uA), int voltage (uV),
+ *   short temperature (deci-degrees C), byte capacity (%), byte status, int valid fields
+ */
+public class BatteryHistoryStore implements Closeable {
+
+    public static final String FILE_NAME = "battery_history.bin";
+    public static final int DEFAULT_CAPACITY = 86400;
+
+    // Fields a record can carry, other snapshot fields are not stored
+    public static final int STORED_FIELDS = BatterySnapshot.FIELD_CURRENT
+            | BatterySnapshot.FIELD_VOLTAGE | BatterySnapshot.FIELD_TEMPERATURE
+            | BatterySnapshot.FIELD_CAPACITY | BatterySnapshot.FIELD_STATUS;
+
+    private static final int MAGIC = 0x50504248; // "PPBH"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_RECORD_SIZE = 8;
+    private static final int HEADER_CAPACITY = 12;
+    private static final int HEADER_WRITTEN = 16;
+
+    private static final int RECORD_SIZE = 24;
+    private static final int RECORD_TIMESTAMP = 0;
+    private static final int RECORD_CURRENT = 8;
+    private static final int RECORD_VOLTAGE = 12;
+    private static final int RECORD_TEMPERATURE = 16;
+    private static final int RECORD_CAPACITY = 18;
+    private static final int RECORD_STATUS = 19;
+    private static final int RECORD_VALID = 20;
+
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private long mWritten;
+
+    private BatteryHistoryStore(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        mChannel = channel;
+        mBuffer = buffer;
+        mCapacity = capacity;
+
+        if (buffer.getInt(HEADER_MAGIC) != MAGIC
+                || buffer.getInt(HEADER_VERSION) != VERSION
+                || buffer.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE
+                || buffer.getInt(HEADER_CAPACITY) != capacity
+                || buffer.getLong(HEADER_WRITTEN) < 0) {
+            // New or incompatible file, start over
+            buffer.putInt(HEADER_MAGIC, MAGIC);
+            buffer.putInt(HEADER_VERSION, VERSION);
+            buffer.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+            buffer.putInt(HEADER_CAPACITY, capacity);
+            buffer.putLong(HEADER_WRITTEN, 0);
+        }
+        mWritten = buffer.getLong(HEADER_WRITTEN);
+    }
+
+    /**
+     * Opens or creates the history file.
+     *
+     * @param file     the file to map
+     * @param capacity the number of records kept before the oldest ones are overwritten
+     */
+    public static BatteryHistoryStore open(File file, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = HEADER_SIZE + (long) RECORD_SIZE * capacity;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new BatteryHistoryStore(channel, buffer, capacity);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest one once the ring is full.
+     */
+    public synchronized void append(long timestamp, BatterySnapshot snapshot) {
+        int offset = recordOffset(mWritten % mCapacity);
+        mBuffer.putLong(offset + RECORD_TIMESTAMP, timestamp);
+        mBuffer.putInt(offset + RECORD_CURRENT, snapshot.currentNow);
+        mBuffer.putInt(offset + RECORD_VOLTAGE, snapshot.voltageNow);
+        mBuffer.putShort(offset + RECORD_TEMPERATURE, (short) snapshot.temperature);
+        mBuffer.put(offset + RECORD_CAPACITY, (byte) snapshot.capacity);
+        mBuffer.put(offset + RECORD_STATUS, (byte) snapshot.status);
+        mBuffer.putInt(offset + RECORD_VALID, snapshot.valid & STORED_FIELDS);
+
+        // Publish the record only once it is complete
+        mWritten++;
+        mBuffer.putLong(HEADER_WRITTEN, mWritten);
+    }
+
+    /**
+     * Returns the number of records currently held.
+     */
+    public synchronized int size() {
+        return (int) Math.min(mWritten, mCapacity);
+    }
+
+    /**
+     * Reads a record into the given snapshot, 0 being the oldest one held.
+     * Only the fields in {@link #STORED_FIELDS} are filled in.
+     *
+     * @return the timestamp of the record, or -1 if the index is out of range
+     */
+    public synchronized long read(int index, BatterySnapshot out) {
+        int size = size();
+        if (index < 0 || index >= size) {
+            return -1;
+        }
+        long first = mWritten - size;
+        int offset = recordOffset((first + index) % mCapacity);
+
+        out.reset();
+        out.currentNow = mBuffer.getInt(offset + RECORD_CURRENT);
+        out.voltageNow = mBuffer.getInt(offset + RECORD_VOLTAGE);
+        out.temperature = mBuffer.getShort(offset + RECORD_TEMPERATURE);
+        out.capacity = mBuffer.get(offset + RECORD_CAPACITY);
+        out.status = mBuffer.get(offset + RECORD_STATUS);
+        out.valid = mBuffer.getInt(offset + RECORD_VALID);
+        return mBuffer.getLong(offset + RECORD_TIMESTAMP);
+    }
+
+    private static int recordOffset(long slot) {
+        return HEADER_SIZE + (int) slot * RECORD_SIZE;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -9,14 +9,19 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
+import androidx.core.content.FileProvider;
 import androidx.preference.Preference.OnPreferenceClickListener;
+import androidx.preference.PreferenceCategory;
 import androidx.preference.PreferenceFragment;
 import androidx.preference.PreferenceManager;
 import androidx.preference.Preference;
@@ -24,28 +29,186 @@ import androidx.preference.SwitchPreference;
 
 import org.evolution.pixelparts.Constants;
 import org.evolution.pixelparts.R;
-import org.evolution.pixelparts.utils.FileUtils;
+import org.evolution.pixelparts.utils.FixedPointFormatter;
+import org.evolution.pixelparts.utils.NodeLatency;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class BatteryInfo extends PreferenceFragment
-        implements Preference.OnPreferenceChangeListener {
+        implements Preference.OnPreferenceChangeListener, BatterySampler.Listener {
     private static final String TAG = BatteryInfo.class.getSimpleName();
 
+    private static final String FILE_PROVIDER_AUTHORITY = "org.evolution.pixelparts.fileprovider";
+    // Cache subdirectory shared through the file provider, see file_provider_paths.xml
+    private static final String EXPORT_DIRECTORY = "exports";
+
+    // Attributes shown per power supply before the section has to be expanded
+    private static final int POWER_SUPPLY_EXPANDED_ATTRIBUTES = 4;
+
+    // Sysfs reads happen on the shared sampler thread, mHandler only renders snapshots
     private Handler mHandler;
-    private Runnable mUpdateRunnable;
+    private BatterySampler mBatterySampler;
     private SharedPreferences mSharedPrefs;
+    private ExecutorService mExportExecutor;
+
+    // Battery info preferences
+    private static final int PREF_TECHNOLOGY = 0;
+    private static final int PREF_STATUS = 1;
+    private static final int PREF_USB_TYPE = 2;
+    private static final int PREF_TEMPERATURE = 3;
+    private static final int PREF_CAPACITY = 4;
+    private static final int PREF_CAPACITY_LEVEL = 5;
+    private static final int PREF_CURRENT = 6;
+    private static final int PREF_VOLTAGE = 7;
+    private static final int PREF_WATTAGE = 8;
+    private static final int PREF_HEALTH = 9;
+    private static final int PREF_CYCLE_COUNT = 10;
+    private static final int PREF_ENERGY_DELIVERED = 11;
+    private static final int PREF_SESSION_AVERAGE_POWER = 12;
+    private static final int PREF_TIME_REMAINING = 13;
+    private static final int PREF_CURRENT_STATISTICS = 14;
+    private static final int PREF_WATTAGE_STATISTICS = 15;
+    private static final int PREF_TEMPERATURE_STATISTICS = 16;
+
+    private static final String[] PREFERENCE_KEYS = {
+            Constants.KEY_TECHNOLOGY,
+            Constants.KEY_STATUS,
+            Constants.KEY_USB_TYPE,
+            Constants.KEY_TEMPERATURE,
+            Constants.KEY_CAPACITY,
+            Constants.KEY_CAPACITY_LEVEL,
+            Constants.KEY_CURRENT,
+            Constants.KEY_VOLTAGE,
+            Constants.KEY_WATTAGE,
+            Constants.KEY_HEALTH,
+            Constants.KEY_CYCLE_COUNT,
+            Constants.KEY_ENERGY_DELIVERED,
+            Constants.KEY_SESSION_AVERAGE_POWER,
+            Constants.KEY_TIME_REMAINING,
+            Constants.KEY_CURRENT_STATISTICS,
+            Constants.KEY_WATTAGE_STATISTICS,
+            Constants.KEY_TEMPERATURE_STATISTICS
+    };
+
+    // Snapshot fields each preference is rendered from
+    private static final int[] PREFERENCE_FIELDS = {
+            BatterySnapshot.FIELD_TECHNOLOGY,
+            BatterySnapshot.FIELD_STATUS,
+            BatterySnapshot.FIELD_USB_TYPE,
+            BatterySnapshot.FIELD_TEMPERATURE,
+            BatterySnapshot.FIELD_CAPACITY,
+            BatterySnapshot.FIELD_CAPACITY_LEVEL,
+            BatterySnapshot.FIELD_CURRENT,
+            BatterySnapshot.FIELD_VOLTAGE,
+            BatterySnapshot.FIELD_VOLTAGE | BatterySnapshot.FIELD_CURRENT,
+            BatterySnapshot.FIELD_HEALTH,
+            BatterySnapshot.FIELD_CYCLE_COUNT,
+            BatterySnapshot.FIELD_SESSION,
+            BatterySnapshot.FIELD_SESSION,
+            BatterySnapshot.FIELD_TIME_REMAINING,
+            BatterySnapshot.FIELD_CURRENT_STATISTICS,
+            BatterySnapshot.FIELD_WATTAGE_STATISTICS,
+            BatterySnapshot.FIELD_TEMPERATURE_STATISTICS
+    };
+
+    private static final int[] INFO_TITLE_IDS = {
+            R.string.technology_info_title,
+            R.string.status_info_title,
+            R.string.usb_type_info_title,
+            R.string.temperature_info_title,
+            R.string.capacity_info_title,
+            R.string.capacity_level_info_title,
+            R.string.current_info_title,
+            R.string.voltage_info_title,
+            R.string.wattage_info_title,
+            R.string.health_info_title,
+            R.string.cycle_count_title,
+            R.string.energy_delivered_info_title,
+            R.string.session_average_power_info_title,
+            R.string.time_remaining_info_title,
+            R.string.current_statistics_title,
+            R.string.wattage_statistics_title,
+            R.string.temperature_statistics_title
+    };
+
+    private static final int[] INFO_MESSAGE_IDS = {
+            R.string.technology_info_message,
+            R.string.status_info_message,
+            R.string.usb_type_info_message,
+            R.string.temperature_info_message,
+            R.string.capacity_info_message,
+            R.string.capacity_level_info_message,
+            R.string.current_info_message,
+            R.string.voltage_info_message,
+            R.string.wattage_info_message,
+            R.string.health_info_message,
+            R.string.cycle_count_info_message,
+            R.string.energy_delivered_info_message,
+            R.string.session_average_power_info_message,
+            R.string.time_remaining_info_message,
+            // Statistics show all windows instead of a fixed message
+            0,
+            0,
+            0
+    };
+
+    // Statistics metric of each preference, -1 for the others
+    private static final int[] PREFERENCE_METRICS = {
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            BatteryStatistics.METRIC_CURRENT,
+            BatteryStatistics.METRIC_WATTAGE,
+            BatteryStatistics.METRIC_TEMPERATURE
+    };
+
+    private static final int[] STATISTICS_WINDOW_TITLE_IDS = {
+            R.string.statistics_window_1_min,
+            R.string.statistics_window_10_min,
+            R.string.statistics_window_1_hour
+    };
+
+    private final Preference[] mPreferences = new Preference[PREFERENCE_KEYS.length];
+    private SummaryRenderer mSummaryRenderer;
+    private String mNodeAccessError;
+    private boolean mUseFahrenheit;
+
+    private final Preference.OnPreferenceClickListener mInfoClickListener =
+            new Preference.OnPreferenceClickListener() {
+        @Override
+        public boolean onPreferenceClick(Preference preference) {
+            for (int i = 0; i < mPreferences.length; i++) {
+                if (mPreferences[i] != preference) {
+                    continue;
+                }
+                if (PREFERENCE_METRICS[i] >= 0) {
+                    requestStatistics(i);
+                } else {
+                    new AlertDialog.Builder(getContext())
+                            .setTitle(getString(INFO_TITLE_IDS[i]))
+                            .setMessage(getString(INFO_MESSAGE_IDS[i]))
+                            .setPositiveButton(android.R.string.ok, null)
+                            .show();
+                }
+                return true;
+            }
+            return false;
+        }
+    };
 
-    // Battery info
-    private Preference mTechnologyPreference;
-    private Preference mStatusPreference;
-    private Preference mUSBTypePreference;
-    private Preference mTemperaturePreference;
-    private Preference mCapacityPreference;
-    private Preference mCapacityLevelPreference;
-    private Preference mCurrentPreference;
-    private Preference mVoltagePreference;
-    private Preference mWattagePreference;
-    private Preference mHealthPreference;
-    private Preference mCycleCountPreference;
+    // Power supply sections, rebuilt whenever the sampler's supply index changes
+    private PowerSupply[] mShownSupplies = new PowerSupply[0];
+    private PreferenceCategory[] mSupplyCategories = new PreferenceCategory[0];
+    private Preference[][] mSupplyPreferences = new Preference[0][];
+    private String[][] mShownSupplyValues = new String[0][];
+
+    private final StringBuilder mSummaryBuilder = new StringBuilder(32);
+    private final long[] mStatisticsValues = new long[BatteryStatistics.STAT_COUNT];
 
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
@@ -58,51 +221,42 @@ public class BatteryInfo extends PreferenceFragment
 
         setHasOptionsMenu(true);
 
-        mHandler = new Handler();
-        mUpdateRunnable = new Runnable() {
-            @Override
-            public void run() {
-                updatePreferenceSummaries();
-                mHandler.postDelayed(this,
-                        mSharedPrefs.getBoolean(Constants.KEY_BATTERY_INFO_REFRESH, false) ? 1000 : 5000);
-            }
-        };
-
-        mTechnologyPreference = findPreference(Constants.KEY_TECHNOLOGY);
-        mStatusPreference = findPreference(Constants.KEY_STATUS);
-        mUSBTypePreference = findPreference(Constants.KEY_USB_TYPE);
-        mTemperaturePreference = findPreference(Constants.KEY_TEMPERATURE);
-        mCapacityPreference = findPreference(Constants.KEY_CAPACITY);
-        mCapacityLevelPreference = findPreference(Constants.KEY_CAPACITY_LEVEL);
-        mCurrentPreference = findPreference(Constants.KEY_CURRENT);
-        mVoltagePreference = findPreference(Constants.KEY_VOLTAGE);
-        mWattagePreference = findPreference(Constants.KEY_WATTAGE);
-        mHealthPreference = findPreference(Constants.KEY_HEALTH);
-        mCycleCountPreference = findPreference(Constants.KEY_CYCLE_COUNT);
-
-        updatePreferenceSummaries();
-        mHandler.postDelayed(mUpdateRunnable,
-                mSharedPrefs.getBoolean(Constants.KEY_BATTERY_INFO_REFRESH, false) ? 1000 : 5000);
+        mHandler = new Handler(Looper.getMainLooper());
+        mBatterySampler = BatterySampler.getInstance(context);
+
+        for (int i = 0; i < PREFERENCE_KEYS.length; i++) {
+            mPreferences[i] = findPreference(PREFERENCE_KEYS[i]);
+            mPreferences[i].setOnPreferenceClickListener(mInfoClickListener);
+        }
+        mSummaryRenderer = new SummaryRenderer(mPreferences);
+        mNodeAccessError = getString(R.string.kernel_node_access_error);
+        mUseFahrenheit = mSharedPrefs.getBoolean(Constants.KEY_TEMPERATURE_UNIT, false);
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        updatePreferenceSummaries();
-        mHandler.postDelayed(mUpdateRunnable,
-                mSharedPrefs.getBoolean(Constants.KEY_BATTERY_INFO_REFRESH, false) ? 1000 : 5000);
+        mBatterySampler.subscribe(this, mHandler, true);
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        mHandler.removeCallbacks(mUpdateRunnable);
+        mBatterySampler.unsubscribe(this);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mHandler.removeCallbacks(mUpdateRunnable);
+        if (mExportExecutor != null) {
+            mExportExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public void onBatterySnapshot(BatterySnapshot snapshot) {
+        updatePreferenceSummaries(snapshot);
+        updatePowerSupplies(mBatterySampler.getPowerSupplies());
     }
 
     @Override
@@ -119,299 +273,374 @@ public class BatteryInfo extends PreferenceFragment
 
         if (item.getItemId() == R.id.temperature_unit) {
             mSharedPrefs.edit().putBoolean(Constants.KEY_TEMPERATURE_UNIT, isChecked).apply();
+            mUseFahrenheit = isChecked;
+            mSummaryRenderer.invalidate(PREF_TEMPERATURE);
+            mSummaryRenderer.invalidate(PREF_TEMPERATURE_STATISTICS);
+            mBatterySampler.requestUpdate();
             return true;
         } else if (item.getItemId() == R.id.battery_info_refresh) {
             mSharedPrefs.edit().putBoolean(Constants.KEY_BATTERY_INFO_REFRESH, isChecked).apply();
+            mBatterySampler.setFastRefresh(isChecked);
             return true;
         } else if (item.getItemId() == R.id.launch_battery_usage) {
             Intent intent = new Intent(Intent.ACTION_POWER_USAGE_SUMMARY);
             startActivity(intent);
             return true;
+        } else if (item.getItemId() == R.id.export_battery_history) {
+            exportBatteryHistory();
+            return true;
+        } else if (item.getItemId() == R.id.node_latency) {
+            showNodeLatencyDialog();
+            return true;
         } else {
             return super.onOptionsItemSelected(item);
         }
     }
 
-    private void updatePreferenceSummaries() {
-        // Technology preference
-        if (FileUtils.isFileReadable(Constants.NODE_TECHNOLOGY)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_TECHNOLOGY, null);
-            mTechnologyPreference.setSummary(fileValue);
-
-            mTechnologyPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.technology_info_title))
-                            .setMessage(getString(R.string.technology_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
-
-        } else {
-            mTechnologyPreference.setSummary(getString(R.string.kernel_node_access_error));
-            mTechnologyPreference.setEnabled(false);
+    // Streams the history to a cache file in the background, then offers to share it
+    private void exportBatteryHistory() {
+        if (mExportExecutor == null) {
+            mExportExecutor = Executors.newSingleThreadExecutor();
         }
+        final Context context = getContext().getApplicationContext();
+        mExportExecutor.submit(() -> {
+            File exportDirectory = new File(context.getCacheDir(), EXPORT_DIRECTORY);
+            File exportFile = new File(exportDirectory,
+                    "battery_history" + BatteryHistoryExport.FILE_EXTENSION);
+            exportDirectory.mkdirs();
+            int records;
+            try (OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(exportFile))) {
+                records = mBatterySampler.exportHistory(out);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not export battery history to " + exportFile, e);
+                mHandler.post(() -> Toast.makeText(context,
+                        R.string.export_battery_history_error, Toast.LENGTH_LONG).show());
+                return;
+            }
+            if (records == 0) {
+                exportFile.delete();
+                mHandler.post(() -> Toast.makeText(context,
+                        R.string.export_battery_history_empty, Toast.LENGTH_LONG).show());
+                return;
+            }
+            mHandler.post(() -> shareBatteryHistory(exportFile));
+        });
+    }
 
-        // Status preference
-        if (FileUtils.isFileReadable(Constants.NODE_STATUS)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_STATUS, null);
-            int statusStringResourceId = getStatusStringResourceId(fileValue);
-            mStatusPreference.setSummary(getString(statusStringResourceId));
-
-            mStatusPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.status_info_title))
-                            .setMessage(getString(R.string.status_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
-
-        } else {
-            mStatusPreference.setSummary(getString(R.string.kernel_node_access_error));
-            mStatusPreference.setEnabled(false);
+    private void shareBatteryHistory(File exportFile) {
+        if (!isAdded()) {
+            return;
         }
+        Uri uri = FileProvider.getUriForFile(getContext(), FILE_PROVIDER_AUTHORITY, exportFile);
+        Intent intent = new Intent(Intent.ACTION_SEND)
+                .setType(BatteryHistoryExport.MIME_TYPE)
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent,
+                getString(R.string.export_battery_history_title)));
+    }
 
-        // USB type preference
-        if (FileUtils.isFileReadable(Constants.NODE_USB_TYPE)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_USB_TYPE, null);
-            int usbTypeStringResourceId = getUSBTypeStringResourceId(fileValue);
-            mUSBTypePreference.setSummary(getString(usbTypeStringResourceId));
+    private void showNodeLatencyDialog() {
+        List<NodeLatency> entries = NodeLatency.getAll();
+        StringBuilder message = new StringBuilder();
+        for (NodeLatency latency : entries) {
+            if (message.length() > 0) {
+                message.append("\n\n");
+            }
+            message.append(getString(R.string.node_latency_entry, latency.getName(),
+                    formatNanos(latency.getAverageNanos()), formatNanos(latency.getMaxNanos()),
+                    formatNanos(latency.getLastNanos()), latency.getCount()));
+        }
+        if (entries.isEmpty()) {
+            message.append(getString(R.string.node_latency_empty));
+        }
+        new AlertDialog.Builder(getContext())
+                .setTitle(getString(R.string.node_latency_title))
+                .setMessage(message)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
 
-            mUSBTypePreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.usb_type_info_title))
-                            .setMessage(getString(R.string.usb_type_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
+    private static String formatNanos(long nanos) {
+        return FixedPointFormatter.append(new StringBuilder(8), nanos, 6, 2).toString();
+    }
 
-        } else {
-            mUSBTypePreference.setSummary(getString(R.string.kernel_node_access_error));
-            mUSBTypePreference.setEnabled(false);
-        }
+    private void requestStatistics(int preference) {
+        showStatisticsDialog(preference,
+                mBatterySampler.getStatistics(PREFERENCE_METRICS[preference]));
+    }
 
-        // Temperature preference
-        if (FileUtils.isFileReadable(Constants.NODE_TEMPERATURE)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_TEMPERATURE, null);
-            int temperature = Integer.parseInt(fileValue);
-            float temperatureCelsius = temperature / 10.0f;
-            float temperatureFahrenheit = temperatureCelsius * 1.8f + 32;
-            if (mSharedPrefs.getBoolean(Constants.KEY_TEMPERATURE_UNIT, false)) {
-                float roundedTemperatureFahrenheit = Math.round(temperatureFahrenheit * 10) / 10.0f;
-                mTemperaturePreference.setSummary(roundedTemperatureFahrenheit + "°F");
+    private void showStatisticsDialog(int preference, long[][] values) {
+        int metric = PREFERENCE_METRICS[preference];
+        StringBuilder message = new StringBuilder();
+        for (int window = 0; window < values.length; window++) {
+            if (window > 0) {
+                message.append("\n\n");
+            }
+            message.append(getString(STATISTICS_WINDOW_TITLE_IDS[window])).append('\n');
+            if (values[window] == null) {
+                message.append(getString(R.string.statistics_no_samples));
             } else {
-               float roundedTemperatureCelsius = Math.round(temperatureCelsius * 10) / 10.0f;
-               mTemperaturePreference.setSummary(roundedTemperatureCelsius + "°C");
+                message.append(formatStatistics(R.string.statistics_values, metric,
+                        values[window]));
             }
-
-            mTemperaturePreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.temperature_info_title))
-                            .setMessage(getString(R.string.temperature_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
-
-        } else {
-            mTemperaturePreference.setSummary(getString(R.string.kernel_node_access_error));
-            mTemperaturePreference.setEnabled(false);
         }
+        new AlertDialog.Builder(getContext())
+                .setTitle(getString(INFO_TITLE_IDS[preference]))
+                .setMessage(message)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
 
-        // Capacity preference
-        if (FileUtils.isFileReadable(Constants.NODE_CAPACITY)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_CAPACITY, null);
-            mCapacityPreference.setSummary(fileValue + "%");
-
-            mCapacityPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.capacity_info_title))
-                            .setMessage(getString(R.string.capacity_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
-
-        } else {
-            mCapacityPreference.setSummary(getString(R.string.kernel_node_access_error));
-            mCapacityPreference.setEnabled(false);
+    private void updatePowerSupplies(PowerSupply[] supplies) {
+        if (supplies != mShownSupplies) {
+            rebuildPowerSupplySections(supplies);
         }
-
-        // Capacity level preference
-        if (FileUtils.isFileReadable(Constants.NODE_CAPACITY_LEVEL)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_CAPACITY_LEVEL, null);
-            int capacityLevelStringResourceId = geCapacityLevelStringResourceId(fileValue);
-            mCapacityLevelPreference.setSummary(getString(capacityLevelStringResourceId));
-
-            mCapacityLevelPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.capacity_level_info_title))
-                            .setMessage(getString(R.string.capacity_level_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
+        for (int i = 0; i < supplies.length; i++) {
+            String[] values = supplies[i].getValues();
+            String[] shownValues = mShownSupplyValues[i];
+            if (values == shownValues) {
+                continue;
+            }
+            for (int j = 0; j < values.length; j++) {
+                if (shownValues == null || values[j] != shownValues[j]) {
+                    mSupplyPreferences[i][j].setSummary(
+                            values[j] != null ? values[j] : mNodeAccessError);
                 }
-            });
-
-        } else {
-            mCapacityLevelPreference.setSummary(getString(R.string.kernel_node_access_error));
-            mCapacityLevelPreference.setEnabled(false);
+            }
+            mShownSupplyValues[i] = values;
         }
+    }
 
-        // Current preference
-        if (FileUtils.isFileReadable(Constants.NODE_CURRENT)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_CURRENT, null);
-            int chargingCurrent = Integer.parseInt(fileValue);
-            int absoluteChargingCurrent = Math.abs(chargingCurrent);
-            String formattedChargingCurrent = (absoluteChargingCurrent / 1000) + "mA";
-            mCurrentPreference.setSummary(formattedChargingCurrent);
-
-            mCurrentPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.current_info_title))
-                            .setMessage(getString(R.string.current_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
+    private void rebuildPowerSupplySections(PowerSupply[] supplies) {
+        for (PreferenceCategory category : mSupplyCategories) {
+            getPreferenceScreen().removePreference(category);
+        }
 
-        } else {
-            mCurrentPreference.setSummary(getString(R.string.kernel_node_access_error));
-            mCurrentPreference.setEnabled(false);
+        Context context = getPreferenceManager().getContext();
+        mSupplyCategories = new PreferenceCategory[supplies.length];
+        mSupplyPreferences = new Preference[supplies.length][];
+        mShownSupplyValues = new String[supplies.length][];
+        for (int i = 0; i < supplies.length; i++) {
+            PowerSupply supply = supplies[i];
+            PreferenceCategory category = new PreferenceCategory(context);
+            category.setKey("power_supply_" + supply.getName());
+            category.setTitle(supply.getType() != null
+                    ? getString(R.string.power_supply_category_title, supply.getName(),
+                            supply.getType())
+                    : supply.getName());
+            category.setInitialExpandedChildrenCount(POWER_SUPPLY_EXPANDED_ATTRIBUTES);
+            getPreferenceScreen().addPreference(category);
+
+            String[] attributes = supply.getAttributes();
+            mSupplyPreferences[i] = new Preference[attributes.length];
+            for (int j = 0; j < attributes.length; j++) {
+                Preference preference = new Preference(context);
+                preference.setTitle(attributes[j]);
+                preference.setPersistent(false);
+                preference.setSelectable(false);
+                category.addPreference(preference);
+                mSupplyPreferences[i][j] = preference;
+            }
+            mSupplyCategories[i] = category;
         }
+        mShownSupplies = supplies;
+    }
 
-        // Voltage preference
-        if (FileUtils.isFileReadable(Constants.NODE_VOLTAGE)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_VOLTAGE, null);
-            float chargingVoltage = Float.parseFloat(fileValue);
-            String formattedChargingVoltage = String.format("%.1f", (chargingVoltage / 1000000)) + "V";
-            mVoltagePreference.setSummary(formattedChargingVoltage);
+    private void updatePreferenceSummaries(BatterySnapshot snapshot) {
+        for (int i = 0; i < mPreferences.length; i++) {
+            if (!snapshot.has(PREFERENCE_FIELDS[i])) {
+                mSummaryRenderer.setError(i, mNodeAccessError);
+            } else if (hasSummaryChanged(i, snapshot)) {
+                mSummaryRenderer.setSummary(i, formatSummary(i, snapshot));
+            }
+        }
+    }
 
-            mVoltagePreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.voltage_info_title))
-                            .setMessage(getString(R.string.voltage_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
+    private boolean hasSummaryChanged(int preference, BatterySnapshot snapshot) {
+        switch (preference) {
+            case PREF_CURRENT_STATISTICS:
+            case PREF_WATTAGE_STATISTICS:
+            case PREF_TEMPERATURE_STATISTICS:
+                // Statistics hold several values, compare all of them
+                return mSummaryRenderer.hasChanged(preference, snapshot.statistics,
+                        PREFERENCE_METRICS[preference] * BatteryStatistics.STAT_COUNT,
+                        BatteryStatistics.STAT_COUNT);
+            default:
+                return mSummaryRenderer.hasChanged(preference,
+                        getSummaryValue(preference, snapshot));
+        }
+    }
 
-        } else {
-            mVoltagePreference.setSummary(getString(R.string.kernel_node_access_error));
-            mVoltagePreference.setEnabled(false);
+    // Raw value a preference summary is formatted from
+    private static long getSummaryValue(int preference, BatterySnapshot snapshot) {
+        switch (preference) {
+            case PREF_TECHNOLOGY:
+                return snapshot.technology;
+            case PREF_STATUS:
+                return snapshot.status;
+            case PREF_USB_TYPE:
+                return snapshot.usbType;
+            case PREF_TEMPERATURE:
+                return snapshot.temperature;
+            case PREF_CAPACITY:
+                return snapshot.capacity;
+            case PREF_CAPACITY_LEVEL:
+                return snapshot.capacityLevel;
+            case PREF_CURRENT:
+                return snapshot.currentNow;
+            case PREF_VOLTAGE:
+                return snapshot.voltageNow;
+            case PREF_WATTAGE:
+                // Microamperes times microvolts gives picowatts
+                return Math.abs((long) snapshot.currentNow * snapshot.voltageNow);
+            case PREF_HEALTH:
+                return snapshot.health;
+            case PREF_CYCLE_COUNT:
+                return snapshot.cycleCount;
+            case PREF_ENERGY_DELIVERED:
+                return ((long) snapshot.sessionEnergy << 32)
+                        | (snapshot.sessionCharge & 0xffffffffL);
+            case PREF_SESSION_AVERAGE_POWER:
+                return snapshot.sessionAveragePower;
+            case PREF_TIME_REMAINING:
+                // Only shown to the minute, unknown must not collide with 0 min
+                return ((long) snapshot.timeRemainingDirection << 33)
+                        | (snapshot.constantVoltage ? 1L << 32 : 0)
+                        | ((snapshot.timeRemaining < 0 ? -1 : snapshot.timeRemaining / 60)
+                                & 0xffffffffL);
+            default:
+                return 0;
         }
+    }
 
-        // Wattage preference
-        if (FileUtils.isFileReadable(Constants.NODE_VOLTAGE) && FileUtils.isFileReadable(Constants.NODE_CURRENT)) {
-            String voltageFileValue = FileUtils.getFileValue(Constants.NODE_VOLTAGE, null);
-            String currentFileValue = FileUtils.getFileValue(Constants.NODE_CURRENT, null);
-            float chargingCurrent = Integer.parseInt(currentFileValue) / 1000.0f;
-            float chargingVoltage = Float.parseFloat(voltageFileValue) / 1000000.0f;
-            float wattage = (chargingVoltage * chargingCurrent) / 1000.0f;
-            float absoluteWattage = Math.abs(wattage);
-            String formattedWattage = String.format("%.1f", absoluteWattage) + "W";
-            mWattagePreference.setSummary(formattedWattage);
-
-            mWattagePreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.wattage_info_title))
-                            .setMessage(getString(R.string.wattage_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
+    private String formatSummary(int preference, BatterySnapshot snapshot) {
+        StringBuilder summary = resetSummaryBuilder();
+        switch (preference) {
+            case PREF_TECHNOLOGY:
+                return getTechnologyString(snapshot);
+            case PREF_STATUS:
+                return getString(getStatusStringResourceId(snapshot.status));
+            case PREF_USB_TYPE:
+                return getString(getUSBTypeStringResourceId(snapshot.usbType));
+            case PREF_TEMPERATURE:
+                return appendTemperature(summary, snapshot.temperature).toString();
+            case PREF_CAPACITY:
+                return summary.append(snapshot.capacity).append('%').toString();
+            case PREF_CAPACITY_LEVEL:
+                return getString(geCapacityLevelStringResourceId(snapshot.capacityLevel));
+            case PREF_CURRENT:
+                return summary.append(Math.abs(snapshot.currentNow) / 1000).append("mA").toString();
+            case PREF_VOLTAGE:
+                return FixedPointFormatter.append(summary, snapshot.voltageNow, 6, 1)
+                        .append('V').toString();
+            case PREF_WATTAGE:
+                return FixedPointFormatter.append(summary,
+                        getSummaryValue(PREF_WATTAGE, snapshot), 12, 1).append('W').toString();
+            case PREF_HEALTH:
+                return getString(getHealthStringResourceId(snapshot.health));
+            case PREF_CYCLE_COUNT:
+                return summary.append(snapshot.cycleCount).toString();
+            case PREF_ENERGY_DELIVERED:
+                // Energy is kept in microwatt hours, charge in microampere hours
+                return FixedPointFormatter.append(summary, snapshot.sessionEnergy, 6, 2)
+                        .append("Wh (").append(snapshot.sessionCharge / 1000).append("mAh)")
+                        .toString();
+            case PREF_SESSION_AVERAGE_POWER:
+                return FixedPointFormatter.append(summary, snapshot.sessionAveragePower, 6, 1)
+                        .append('W').toString();
+            case PREF_TIME_REMAINING:
+                return formatTimeRemaining(summary, snapshot);
+            case PREF_CURRENT_STATISTICS:
+            case PREF_WATTAGE_STATISTICS:
+            case PREF_TEMPERATURE_STATISTICS:
+                int metric = PREFERENCE_METRICS[preference];
+                System.arraycopy(snapshot.statistics, metric * BatteryStatistics.STAT_COUNT,
+                        mStatisticsValues, 0, BatteryStatistics.STAT_COUNT);
+                return formatStatistics(R.string.statistics_summary, metric, mStatisticsValues);
+            default:
+                return null;
+        }
+    }
 
-        } else {
-            mWattagePreference.setSummary(getString(R.string.kernel_node_access_error));
-            mWattagePreference.setEnabled(false);
+    private String formatTimeRemaining(StringBuilder summary, BatterySnapshot snapshot) {
+        if (snapshot.timeRemaining == BatteryTimeEstimator.TIME_UNKNOWN) {
+            return getString(R.string.time_remaining_estimating);
+        }
+        int minutes = snapshot.timeRemaining / 60;
+        if (minutes >= 60) {
+            summary.append(minutes / 60).append(" h ");
+        }
+        String duration = summary.append(minutes % 60).append(" min").toString();
+        if (snapshot.timeRemainingDirection == ChargeSessionIntegrator.DIRECTION_DISCHARGING) {
+            return getString(R.string.time_remaining_to_empty, duration);
         }
+        return getString(snapshot.constantVoltage
+                ? R.string.time_remaining_to_full_tapering
+                : R.string.time_remaining_to_full, duration);
+    }
 
-        // Health preference
-        if (FileUtils.isFileReadable(Constants.NODE_HEALTH)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_HEALTH, null);
-            int healthStringResourceId = getHealthStringResourceId(fileValue);
-            mHealthPreference.setSummary(getString(healthStringResourceId));
+    // Temperature is reported in deci-degrees Celsius
+    private StringBuilder appendTemperature(StringBuilder builder, long temperature) {
+        if (mUseFahrenheit) {
+            long temperatureCentiFahrenheit = temperature * 18 + 3200;
+            return FixedPointFormatter.append(builder, temperatureCentiFahrenheit, 2, 1)
+                    .append("°F");
+        }
+        return FixedPointFormatter.append(builder, temperature, 1, 1).append("°C");
+    }
 
-            mHealthPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.health_info_title))
-                            .setMessage(getString(R.string.health_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
+    private String formatStatistics(int formatResId, int metric, long[] values) {
+        return getString(formatResId,
+                formatMetric(metric, values[BatteryStatistics.STAT_P50]),
+                formatMetric(metric, values[BatteryStatistics.STAT_P95]),
+                formatMetric(metric, values[BatteryStatistics.STAT_P99]),
+                formatMetric(metric, values[BatteryStatistics.STAT_MIN]),
+                formatMetric(metric, values[BatteryStatistics.STAT_MEAN]),
+                formatMetric(metric, values[BatteryStatistics.STAT_MAX]));
+    }
 
-        } else {
-            mHealthPreference.setSummary(getString(R.string.kernel_node_access_error));
-            mHealthPreference.setEnabled(false);
+    private String formatMetric(int metric, long value) {
+        StringBuilder builder = new StringBuilder(16);
+        switch (metric) {
+            case BatteryStatistics.METRIC_CURRENT:
+                return builder.append(value).append("mA").toString();
+            case BatteryStatistics.METRIC_WATTAGE:
+                return FixedPointFormatter.append(builder, value, 3, 1).append('W').toString();
+            case BatteryStatistics.METRIC_TEMPERATURE:
+                return appendTemperature(builder, value).toString();
+            default:
+                return builder.append(value).toString();
         }
+    }
 
-        // Cycle count preference
-        if (FileUtils.isFileReadable(Constants.NODE_CYCLE_COUNT)) {
-            String fileValue = FileUtils.getFileValue(Constants.NODE_CYCLE_COUNT, null);
-            mCycleCountPreference.setSummary(fileValue);
-
-            mCycleCountPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    new AlertDialog.Builder(getContext())
-                            .setTitle(getString(R.string.cycle_count_title))
-                            .setMessage(getString(R.string.cycle_count_info_message))
-                            .setPositiveButton(android.R.string.ok, null)
-                            .show();
-                    return true;
-                }
-            });
+    private StringBuilder resetSummaryBuilder() {
+        mSummaryBuilder.setLength(0);
+        return mSummaryBuilder;
+    }
 
-        } else {
-            mCycleCountPreference.setSummary(getString(R.string.kernel_node_access_error));
-            mCycleCountPreference.setEnabled(false);
+    // Technology preference strings
+    private String getTechnologyString(BatterySnapshot snapshot) {
+        if (snapshot.technology == BatterySnapshot.VALUE_UNRECOGNIZED) {
+            // Shown as reported, like before technologies were parsed
+            return snapshot.technologyText != null ? snapshot.technologyText : mNodeAccessError;
         }
+        return BatterySnapshot.TECHNOLOGY_VALUES[snapshot.technology];
     }
 
     // Status preference strings
-    private int getStatusStringResourceId(String status) {
+    private int getStatusStringResourceId(int status) {
         switch (status) {
-            case "Unknown":
+            case BatterySnapshot.STATUS_UNKNOWN:
                 return R.string.status_unknown;
-            case "Charging":
+            case BatterySnapshot.STATUS_CHARGING:
                 return R.string.status_charging;
-            case "Discharging":
+            case BatterySnapshot.STATUS_DISCHARGING:
                 return R.string.status_discharging;
-            case "Not charging":
+            case BatterySnapshot.STATUS_NOT_CHARGING:
                 return R.string.status_not_charging;
-            case "Full":
+            case BatterySnapshot.STATUS_FULL:
                 return R.string.status_full;
             default:
                 return R.string.kernel_node_access_error;
@@ -419,74 +648,61 @@ public class BatteryInfo extends PreferenceFragment
     }
 
     // USB type preference strings
-    private int getUSBTypeStringResourceId(String usbType) {
-        if (usbType.contains("[Unknown]")) {
-            return R.string.usb_type_unknown_or_not_connected;
-        } else if (usbType.contains("[SDP]")) {
-            return R.string.usb_type_standard_downstream_port;
-        } else if (usbType.contains("[CDP]")) {
-            return R.string.usb_type_charging_downstream_port;
-        } else if (usbType.contains("[DCP]")) {
-            return R.string.usb_type_dedicated_charging_port;
-        } else {
-            return R.string.kernel_node_access_error;
+    private int getUSBTypeStringResourceId(int usbType) {
+        switch (usbType) {
+            case BatterySnapshot.USB_TYPE_UNKNOWN:
+                return R.string.usb_type_unknown_or_not_connected;
+            case BatterySnapshot.USB_TYPE_SDP:
+                return R.string.usb_type_standard_downstream_port;
+            case BatterySnapshot.USB_TYPE_CDP:
+                return R.string.usb_type_charging_downstream_port;
+            case BatterySnapshot.USB_TYPE_DCP:
+                return R.string.usb_type_dedicated_charging_port;
+            default:
+                return R.string.kernel_node_access_error;
         }
     }
 
-    // Capacity level preference strings
-    private int geCapacityLevelStringResourceId(String capacitylevel) {
-        switch (capacitylevel) {
-            case "Unknown":
-                return R.string.capacity_level_unknown;
-            case "Critical":
-                return R.string.capacity_level_critical;
-            case "Low":
-                return R.string.capacity_level_low;
-            case "Normal":
-                return R.string.capacity_level_normal;
-            case "High":
-                return R.string.capacity_level_high;
-            case "Full":
-                return R.string.capacity_level_full;
-            default:
-                return R.string.kernel_node_access_error;
+    // Capacity level preference strings, indexed like BatterySnapshot.CAPACITY_LEVEL_VALUES
+    private static final int[] CAPACITY_LEVEL_STRING_RESOURCE_IDS = {
+            R.string.capacity_level_unknown,
+            R.string.capacity_level_critical,
+            R.string.capacity_level_low,
+            R.string.capacity_level_normal,
+            R.string.capacity_level_high,
+            R.string.capacity_level_full
+    };
+
+    private int geCapacityLevelStringResourceId(int capacityLevel) {
+        if (capacityLevel < 0 || capacityLevel >= CAPACITY_LEVEL_STRING_RESOURCE_IDS.length) {
+            return R.string.kernel_node_access_error;
         }
+        return CAPACITY_LEVEL_STRING_RESOURCE_IDS[capacityLevel];
     }
 
-    // Health preference strings
-    private int getHealthStringResourceId(String health) {
-        switch (health) {
-            case "Unknown":
-                return R.string.health_unknown;
-            case "Good":
-                return R.string.health_good;
-            case "Overheat":
-                return R.string.health_overheat;
-            case "Dead":
-                return R.string.health_dead;
-            case "Over voltage":
-                return R.string.health_over_voltage;
-            case "Unspecified failure":
-                return R.string.health_unspecified_failure;
-            case "Cold":
-                return R.string.health_cold;
-            case "Watchdog timer expire":
-                return R.string.health_watchdog_timer_expire;
-            case "Safety timer expire":
-                return R.string.health_safety_timer_expire;
-            case "Over current":
-                return R.string.health_over_current;
-            case "Calibration required":
-                return R.string.health_calibration_required;
-            case "Warm":
-                return R.string.health_warm;
-            case "Cool":
-                return R.string.health_cool;
-            case "Hot":
-                return R.string.health_hot;
-            default:
-                return R.string.kernel_node_access_error;
+    // Health preference strings, indexed like BatterySnapshot.HEALTH_VALUES
+    private static final int[] HEALTH_STRING_RESOURCE_IDS = {
+            R.string.health_unknown,
+            R.string.health_good,
+            R.string.health_overheat,
+            R.string.health_dead,
+            R.string.health_over_voltage,
+            R.string.health_unspecified_failure,
+            R.string.health_cold,
+            R.string.health_watchdog_timer_expire,
+            R.string.health_safety_timer_expire,
+            R.string.health_over_current,
+            R.string.health_calibration_required,
+            R.string.health_warm,
+            R.string.health_cool,
+            R.string.health_hot
+    };
+
+    private int getHealthStringResourceId(int health) {
+        if (health < 0 || health >= HEALTH_STRING_RESOURCE_IDS.length) {
+            return R.string.kernel_node_access_error;
         }
+        return HEALTH_STRING_RESOURCE_IDS[health];
     }
 
     @Override
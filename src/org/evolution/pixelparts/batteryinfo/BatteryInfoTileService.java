@@ -7,21 +7,106 @@ package org.evolution.pixelparts.batteryinfo;
 
 import android.app.PendingIntent;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
+import androidx.preference.PreferenceManager;
 
-public class BatteryInfoTileService extends TileService {
+import org.evolution.pixelparts.Constants;
+import org.evolution.pixelparts.utils.FixedPointFormatter;
+
+public class BatteryInfoTileService extends TileService implements BatterySampler.Listener {
+
+    // Shortest time between two tile updates, each one is an IPC to SystemUI
+    private static final long MIN_UPDATE_INTERVAL_MS = 2000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mUpdateRunnable = this::updateTile;
+    private final StringBuilder mSubtitleBuilder = new StringBuilder(24);
+
+    private String mSubtitle;
+    private String mPendingSubtitle;
+    private long mLastUpdateTime;
+    private boolean mUseFahrenheit;
 
     private void updateTile() {
         final Tile tile = getQsTile();
+        if (tile == null) {
+            return;
+        }
+        if (mPendingSubtitle != null) {
+            mSubtitle = mPendingSubtitle;
+            mPendingSubtitle = null;
+        }
         tile.setState(Tile.STATE_ACTIVE);
+        tile.setSubtitle(mSubtitle);
         tile.updateTile();
+        mLastUpdateTime = SystemClock.uptimeMillis();
     }
 
     @Override
     public void onStartListening() {
         super.onStartListening();
+        mUseFahrenheit = PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(Constants.KEY_TEMPERATURE_UNIT, false);
         updateTile();
+        BatterySampler.getInstance(this).subscribe(this, mHandler);
+    }
+
+    @Override
+    public void onStopListening() {
+        super.onStopListening();
+        BatterySampler.getInstance(this).unsubscribe(this);
+        mHandler.removeCallbacks(mUpdateRunnable);
+    }
+
+    @Override
+    public void onBatterySnapshot(BatterySnapshot snapshot) {
+        StringBuilder subtitle = formatSubtitle(snapshot);
+        if (mSubtitle != null && mSubtitle.contentEquals(subtitle)) {
+            // Back to what the tile shows, drop any update still waiting
+            mPendingSubtitle = null;
+            mHandler.removeCallbacks(mUpdateRunnable);
+            return;
+        }
+        if (mPendingSubtitle != null && mPendingSubtitle.contentEquals(subtitle)) {
+            return;
+        }
+
+        // Coalesce changes arriving faster than the tile may be updated
+        mPendingSubtitle = subtitle.toString();
+        mHandler.removeCallbacks(mUpdateRunnable);
+        long delay = mLastUpdateTime + MIN_UPDATE_INTERVAL_MS - SystemClock.uptimeMillis();
+        if (delay <= 0) {
+            updateTile();
+        } else {
+            mHandler.postDelayed(mUpdateRunnable, delay);
+        }
+    }
+
+    private StringBuilder formatSubtitle(BatterySnapshot snapshot) {
+        StringBuilder subtitle = mSubtitleBuilder;
+        subtitle.setLength(0);
+        if (snapshot.has(BatterySnapshot.FIELD_CURRENT | BatterySnapshot.FIELD_VOLTAGE)) {
+            // Microamperes times microvolts gives picowatts
+            long wattage = Math.abs((long) snapshot.currentNow * snapshot.voltageNow);
+            FixedPointFormatter.append(subtitle, wattage, 12, 1).append('W');
+        }
+        if (snapshot.has(BatterySnapshot.FIELD_TEMPERATURE)) {
+            if (subtitle.length() > 0) {
+                subtitle.append(" · ");
+            }
+            // Temperature is reported in deci-degrees Celsius
+            if (mUseFahrenheit) {
+                FixedPointFormatter.append(subtitle, snapshot.temperature * 18L + 3200, 2, 1)
+                        .append("°F");
+            } else {
+                FixedPointFormatter.append(subtitle, snapshot.temperature, 1, 1).append("°C");
+            }
+        }
+        return subtitle;
     }
 
     @Override
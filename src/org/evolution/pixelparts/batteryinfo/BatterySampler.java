@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.os.UEventObserver;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import org.evolution.pixelparts.Constants;
+import org.evolution.pixelparts.utils.SysfsNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide battery sampler shared by everything that shows live battery info.
+ *
+ * Sysfs is only read while at least one listener is subscribed. The first subscriber
+ * starts sampling and the power supply uevent observer; when the last one unsubscribes
+ * both are stopped and the open nodes and history mapping are released.
+ *
+ * Sampling runs on a single thread owned by the sampler that lives as long as the
+ * process. Starting and stopping are posted to it, so a stop and a quick restart run one
+ * after the other and never touch the same nodes concurrently.
+ *
+ * Subscribers may also ask for the attributes of all power supplies, which are then
+ * refreshed along with every snapshot from each supply's uevent; the battery supply
+ * reuses the uevent the snapshot was read from. See {@link #getPowerSupplies()}.
+ *
+ * Every snapshot is also appended to the {@link BatteryHistoryStore}. While nothing is
+ * subscribed, {@link BatteryHistoryJobService} records a snapshot now and then through
+ * {@link #recordHistory(Runnable)}, so the history and the statistics keep going at a low
+ * rate with nothing on screen.
+ *
+ * Each subscriber receives snapshots on its own handler. A subscriber that falls behind
+ * only receives the newest snapshot once it catches up, older ones are dropped. Delivered
+ * snapshots must not be kept past the listener call, they are reused.
+ */
+public class BatterySampler {
+    private static final String TAG = BatterySampler.class.getSimpleName();
+
+    private static final String POWER_SUPPLY_UEVENT_MATCH = "SUBSYSTEM=power_supply";
+    private static final String UEVENT_ACTION = "ACTION";
+    private static final String UEVENT_ACTION_ADD = "add";
+    private static final String UEVENT_ACTION_REMOVE = "remove";
+
+    // Power supply uevents cover status, USB type and capacity changes, the timer only
+    // has to catch values that change without one, such as current_now. It runs at the
+    // minimum interval during transitions and backs off towards the maximum while stable.
+    // The refresh toggle picks one of the two pairs of bounds.
+    private static final long FAST_REFRESH_MIN_INTERVAL_MS = 1000;
+    private static final long FAST_REFRESH_MAX_INTERVAL_MS = 5000;
+    private static final long REFRESH_MIN_INTERVAL_MS = 2000;
+    private static final long REFRESH_MAX_INTERVAL_MS = 30000;
+
+    public interface Listener {
+        void onBatterySnapshot(BatterySnapshot snapshot);
+    }
+
+    private static BatterySampler sInstance;
+
+    private final File mHistoryFile;
+
+    private final Object mLock = new Object();
+
+    // Guarded by mLock
+    private final ArrayList<Subscription> mSubscriptions = new ArrayList<>();
+    private boolean mRunning;
+
+    // Copy of mSubscriptions the sampler thread iterates without locking
+    private volatile Subscription[] mDeliveries = new Subscription[0];
+
+    private volatile boolean mFastRefresh;
+    private volatile boolean mReadPowerSupplies;
+
+    private final PowerSupplyIndex mPowerSupplyIndex = new PowerSupplyIndex();
+    // Supplies as of the last refresh, their values are at least as new as the snapshot
+    private volatile PowerSupply[] mPowerSupplies = new PowerSupply[0];
+
+    private final HandlerThread mThread = new HandlerThread(TAG);
+    private final Handler mSamplerHandler;
+
+    // Only touched on the sampler thread
+    private final BatterySnapshotReader mReader = new BatterySnapshotReader();
+    private final BatterySnapshot mSample = new BatterySnapshot();
+    private BatteryHistoryStore mHistoryStore;
+    private PowerSupply[] mRefreshedSupplies = new PowerSupply[0];
+    private boolean mSampling;
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mSampling) {
+                mSamplerHandler.postDelayed(this, sample());
+            }
+        }
+    };
+
+    // Derived state outlives sampling restarts, guarded by mStatistics
+    private final AdaptiveSampleScheduler mSampleScheduler =
+            new AdaptiveSampleScheduler(REFRESH_MIN_INTERVAL_MS, REFRESH_MAX_INTERVAL_MS);
+    private final ChargeSessionIntegrator mSessionIntegrator = new ChargeSessionIntegrator();
+    private final BatteryTimeEstimator mTimeEstimator = new BatteryTimeEstimator();
+    private final BatteryStatistics mStatistics = new BatteryStatistics();
+    private final long[] mStatisticsScratch = new long[BatteryStatistics.STAT_COUNT];
+
+    private final UEventObserver mPowerSupplyObserver = new UEventObserver() {
+        @Override
+        public void onUEvent(UEventObserver.UEvent event) {
+            String action = event.get(UEVENT_ACTION);
+            if (UEVENT_ACTION_ADD.equals(action) || UEVENT_ACTION_REMOVE.equals(action)) {
+                // Rebuild the index here rather than on the next refresh
+                mPowerSupplyIndex.invalidate();
+                if (mReadPowerSupplies) {
+                    mPowerSupplyIndex.getSupplies();
+                }
+            }
+            requestUpdate();
+        }
+    };
+
+    private static class Subscription implements Runnable {
+        final Listener listener;
+        final Handler handler;
+        final boolean powerSupplies;
+        final AtomicReference<BatterySnapshot> pending = new AtomicReference<>();
+        final AtomicReference<BatterySnapshot> spare = new AtomicReference<>();
+        volatile boolean active = true;
+
+        Subscription(Listener listener, Handler handler, boolean powerSupplies) {
+            this.listener = listener;
+            this.handler = handler;
+            this.powerSupplies = powerSupplies;
+        }
+
+        // Runs on the sampler thread
+        void offer(BatterySnapshot sample) {
+            BatterySnapshot snapshot = spare.getAndSet(null);
+            if (snapshot == null) {
+                snapshot = new BatterySnapshot();
+            }
+            snapshot.set(sample);
+            BatterySnapshot previous = pending.getAndSet(snapshot);
+            if (previous == null) {
+                handler.post(this);
+            } else {
+                // Not delivered yet, replaced by the newer one
+                spare.set(previous);
+            }
+        }
+
+        // Runs on the subscriber handler
+        @Override
+        public void run() {
+            BatterySnapshot snapshot = pending.getAndSet(null);
+            if (snapshot == null || !active) {
+                return;
+            }
+            listener.onBatterySnapshot(snapshot);
+            spare.set(snapshot);
+        }
+    }
+
+    private BatterySampler(Context context) {
+        mHistoryFile = new File(context.getFilesDir(), BatteryHistoryStore.FILE_NAME);
+        mFastRefresh = PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(Constants.KEY_BATTERY_INFO_REFRESH, false);
+        mThread.start();
+        mSamplerHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Returns the process-wide sampler instance.
+     */
+    public static synchronized BatterySampler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BatterySampler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts delivering snapshots to the given listener on the given handler, starting
+     * the sampler if it is not running. A fresh snapshot is delivered right away.
+     */
+    public void subscribe(Listener listener, Handler handler) {
+        subscribe(listener, handler, false);
+    }
+
+    /**
+     * Like {@link #subscribe(Listener, Handler)}, optionally also reading the attributes
+     * of all power supplies while the listener is subscribed.
+     */
+    public void subscribe(Listener listener, Handler handler, boolean powerSupplies) {
+        synchronized (mLock) {
+            for (Subscription subscription : mSubscriptions) {
+                if (subscription.listener == listener) {
+                    return;
+                }
+            }
+            mSubscriptions.add(new Subscription(listener, handler, powerSupplies));
+            updateSubscriptionsLocked();
+
+            if (!mRunning) {
+                mRunning = true;
+                mPowerSupplyObserver.startObserving(POWER_SUPPLY_UEVENT_MATCH);
+                mSamplerHandler.post(this::startSampling);
+            }
+            if (powerSupplies) {
+                // Build the index up front, refreshes only use an existing one
+                mSamplerHandler.post(mPowerSupplyIndex::getSupplies);
+            }
+            requestUpdateLocked();
+        }
+    }
+
+    /**
+     * Stops delivering snapshots to the given listener, stopping the sampler if it was
+     * the last one. No snapshot is delivered after this returns.
+     */
+    public void unsubscribe(Listener listener) {
+        synchronized (mLock) {
+            for (int i = 0; i < mSubscriptions.size(); i++) {
+                Subscription subscription = mSubscriptions.get(i);
+                if (subscription.listener == listener) {
+                    subscription.active = false;
+                    subscription.handler.removeCallbacks(subscription);
+                    mSubscriptions.remove(i);
+                    break;
+                }
+            }
+            updateSubscriptionsLocked();
+
+            if (mSubscriptions.isEmpty() && mRunning) {
+                mRunning = false;
+                mPowerSupplyObserver.stopObserving();
+                mSamplerHandler.removeCallbacks(mSampleRunnable);
+                mSamplerHandler.post(this::stopSampling);
+            }
+        }
+    }
+
+    private void updateSubscriptionsLocked() {
+        boolean readPowerSupplies = false;
+        for (Subscription subscription : mSubscriptions) {
+            readPowerSupplies |= subscription.powerSupplies;
+        }
+        mReadPowerSupplies = readPowerSupplies;
+        mDeliveries = mSubscriptions.toArray(new Subscription[0]);
+    }
+
+    /**
+     * Returns the power supplies as of the last snapshot, empty unless a subscriber asked
+     * for them. The array must not be modified.
+     */
+    public PowerSupply[] getPowerSupplies() {
+        return mPowerSupplies;
+    }
+
+    /**
+     * Samples right away, if the sampler is running.
+     */
+    public void requestUpdate() {
+        synchronized (mLock) {
+            requestUpdateLocked();
+        }
+    }
+
+    private void requestUpdateLocked() {
+        if (mRunning) {
+            mSamplerHandler.removeCallbacks(mSampleRunnable);
+            mSamplerHandler.post(mSampleRunnable);
+        }
+    }
+
+    /**
+     * Selects the faster refresh interval bounds.
+     */
+    public void setFastRefresh(boolean fastRefresh) {
+        mFastRefresh = fastRefresh;
+        requestUpdate();
+    }
+
+    /**
+     * Takes a single snapshot and appends it to the history, unless the sampler is
+     * running and records the history anyway. The nodes and the history mapping are
+     * released again afterwards.
+     *
+     * @param onRecorded run on the sampler thread once done
+     */
+    public void recordHistory(Runnable onRecorded) {
+        mSamplerHandler.post(() -> {
+            if (!mSampling) {
+                recordHistoryOnSampler();
+            }
+            onRecorded.run();
+        });
+    }
+
+    // Runs on the sampler thread while not sampling
+    private void recordHistoryOnSampler() {
+        try (BatteryHistoryStore store = BatteryHistoryStore.open(mHistoryFile,
+                BatteryHistoryStore.DEFAULT_CAPACITY)) {
+            mHistoryStore = store;
+            sample();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open battery history " + mHistoryFile, e);
+        } finally {
+            mHistoryStore = null;
+            mReader.close();
+        }
+    }
+
+    /**
+     * Writes the battery history to the given stream in the {@link BatteryHistoryExport}
+     * format. The export runs on the sampler thread against the store it appends to, so
+     * it never sees a half written record; sampling waits until it is done. The history
+     * file is not created if there is none yet.
+     *
+     * Blocks until the export finished, must not be called on the main thread.
+     *
+     * @return the number of records written, 0 if there is no history yet, in which case
+     *         nothing was written to the stream
+     */
+    public int exportHistory(OutputStream out) throws IOException {
+        FutureTask<Integer> task = new FutureTask<>(() -> exportHistoryOnSampler(out));
+        mSamplerHandler.post(task);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Battery history export interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not export battery history", e.getCause());
+        }
+    }
+
+    // Runs on the sampler thread
+    private int exportHistoryOnSampler(OutputStream out) throws IOException {
+        if (mHistoryStore != null) {
+            return mHistoryStore.size() > 0 ? BatteryHistoryExport.write(mHistoryStore, out) : 0;
+        }
+        if (!mHistoryFile.exists()) {
+            return 0;
+        }
+        // Not sampling, nothing else has the file mapped
+        try (BatteryHistoryStore store = BatteryHistoryStore.open(mHistoryFile,
+                BatteryHistoryStore.DEFAULT_CAPACITY)) {
+            return store.size() > 0 ? BatteryHistoryExport.write(store, out) : 0;
+        }
+    }
+
+    /**
+     * Returns the statistics of a metric over all windows, indexed by window and then by
+     * the BatteryStatistics.STAT_* indexes, with null for windows without samples.
+     */
+    public long[][] getStatistics(int metric) {
+        long now = SystemClock.elapsedRealtime();
+        long[][] values = new long[BatteryStatistics.WINDOW_COUNT][];
+        synchronized (mStatistics) {
+            for (int window = 0; window < values.length; window++) {
+                long[] windowValues = new long[BatteryStatistics.STAT_COUNT];
+                if (mStatistics.get(metric, window, now, windowValues)) {
+                    values[window] = windowValues;
+                }
+            }
+        }
+        return values;
+    }
+
+    // Runs on the sampler thread
+    private void startSampling() {
+        mSampling = true;
+        // Readings may have moved on while nothing was sampled
+        synchronized (mStatistics) {
+            mSampleScheduler.reset();
+        }
+        try {
+            mHistoryStore = BatteryHistoryStore.open(mHistoryFile,
+                    BatteryHistoryStore.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open battery history " + mHistoryFile, e);
+        }
+    }
+
+    // Runs on the sampler thread, releases everything startSampling() and sample() opened
+    private void stopSampling() {
+        mSampling = false;
+        mSamplerHandler.removeCallbacks(mSampleRunnable);
+        mReader.close();
+        closePowerSupplies();
+        mRefreshedSupplies = new PowerSupply[0];
+        if (mHistoryStore != null) {
+            try {
+                mHistoryStore.close();
+            } catch (IOException e) {
+                // Ignored, not much we can do anyway
+            }
+            mHistoryStore = null;
+        }
+    }
+
+    // Runs on the sampler thread
+    private void refreshPowerSupplies() {
+        PowerSupply[] supplies = mPowerSupplyIndex.peekSupplies();
+        if (supplies == null) {
+            // Being rebuilt after an add or remove uevent
+            return;
+        }
+        if (supplies != mRefreshedSupplies) {
+            closePowerSupplies();
+            mRefreshedSupplies = supplies;
+        }
+        SysfsNode batteryUevent = mReader.getUevent();
+        for (PowerSupply supply : supplies) {
+            if (!Constants.NODE_BATTERY_UEVENT.equals(supply.getUeventPath())) {
+                supply.refresh();
+            } else if (batteryUevent != null) {
+                // Just read for the snapshot, skipped while the reader reuses older values
+                supply.refresh(batteryUevent.getBuffer(), batteryUevent.length());
+            }
+        }
+        mPowerSupplies = supplies;
+    }
+
+    private void closePowerSupplies() {
+        for (PowerSupply supply : mRefreshedSupplies) {
+            supply.close();
+        }
+    }
+
+    // Runs on the sampler thread, returns the delay until the next sample
+    private long sample() {
+        BatterySnapshot sample = mSample;
+        mReader.read(sample);
+        if (mReadPowerSupplies) {
+            refreshPowerSupplies();
+        }
+        if (mHistoryStore != null) {
+            mHistoryStore.append(System.currentTimeMillis(), sample);
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        long nextInterval;
+        synchronized (mStatistics) {
+            mSessionIntegrator.add(now, sample);
+            mSessionIntegrator.fill(sample);
+            mTimeEstimator.add(now, sample);
+            mTimeEstimator.fill(sample);
+            mStatistics.add(now, sample);
+            mStatistics.fill(now, sample, mStatisticsScratch);
+
+            if (mFastRefresh) {
+                mSampleScheduler.setBounds(FAST_REFRESH_MIN_INTERVAL_MS,
+                        FAST_REFRESH_MAX_INTERVAL_MS);
+            } else {
+                mSampleScheduler.setBounds(REFRESH_MIN_INTERVAL_MS, REFRESH_MAX_INTERVAL_MS);
+            }
+            nextInterval = mSampleScheduler.nextInterval(sample);
+        }
+
+        for (Subscription subscription : mDeliveries) {
+            subscription.offer(sample);
+        }
+        return nextInterval;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import java.util.Arrays;
+
+/**
+ * Primitive-field holder for one sample of the battery power supply.
+ *
+ * Text attributes are stored as indexes into the matching *_VALUES tables, numeric
+ * attributes are kept in the units reported by the kernel. An unknown technology is
+ * also kept as reported, since the battery info screen shows it as it is. A field is only meaningful
+ * if its bit is set in {@link #valid}.
+ */
+public class BatterySnapshot {
+
+    // Field bits
+    public static final int FIELD_TECHNOLOGY = 1 << 0;
+    public static final int FIELD_STATUS = 1 << 1;
+    public static final int FIELD_USB_TYPE = 1 << 2;
+    public static final int FIELD_TEMPERATURE = 1 << 3;
+    public static final int FIELD_CAPACITY = 1 << 4;
+    public static final int FIELD_CAPACITY_LEVEL = 1 << 5;
+    public static final int FIELD_CURRENT = 1 << 6;
+    public static final int FIELD_VOLTAGE = 1 << 7;
+    public static final int FIELD_HEALTH = 1 << 8;
+    public static final int FIELD_CYCLE_COUNT = 1 << 9;
+
+    // Derived field bits, filled in by the sampler rather than read from sysfs
+    public static final int FIELD_SESSION = 1 << 10;
+    public static final int FIELD_CURRENT_STATISTICS = 1 << 11;
+    public static final int FIELD_WATTAGE_STATISTICS = 1 << 12;
+    public static final int FIELD_TEMPERATURE_STATISTICS = 1 << 13;
+    public static final int FIELD_TIME_REMAINING = 1 << 14;
+
+    // Returned for text values the kernel reported but we do not know about
+    public static final int VALUE_UNRECOGNIZED = -1;
+
+    // Text value tables, indexes are the stored codes
+    public static final String[] TECHNOLOGY_VALUES = {
+            "Unknown", "NiMH", "Li-ion", "Li-poly", "LiFe", "NiCd", "LiMn"
+    };
+    public static final String[] STATUS_VALUES = {
+            "Unknown", "Charging", "Discharging", "Not charging", "Full"
+    };
+    public static final String[] USB_TYPE_VALUES = {
+            "Unknown", "SDP", "CDP", "DCP"
+    };
+    public static final String[] CAPACITY_LEVEL_VALUES = {
+            "Unknown", "Critical", "Low", "Normal", "High", "Full"
+    };
+    public static final String[] HEALTH_VALUES = {
+            "Unknown", "Good", "Overheat", "Dead", "Over voltage", "Unspecified failure",
+            "Cold", "Watchdog timer expire", "Safety timer expire", "Over current",
+            "Calibration required", "Warm", "Cool", "Hot"
+    };
+
+    // Status codes
+    public static final int STATUS_UNKNOWN = 0;
+    public static final int STATUS_CHARGING = 1;
+    public static final int STATUS_DISCHARGING = 2;
+    public static final int STATUS_NOT_CHARGING = 3;
+    public static final int STATUS_FULL = 4;
+
+    // USB type codes
+    public static final int USB_TYPE_UNKNOWN = 0;
+    public static final int USB_TYPE_SDP = 1;
+    public static final int USB_TYPE_CDP = 2;
+    public static final int USB_TYPE_DCP = 3;
+
+    public int valid;
+
+    public int technology;
+    // Technology as reported, only set when it is VALUE_UNRECOGNIZED
+    public String technologyText;
+    public int status;
+    public int usbType;
+    public int temperature;      // deci-degrees Celsius
+    public int capacity;         // percent
+    public int capacityLevel;
+    public int currentNow;       // microamperes
+    public int voltageNow;       // microvolts
+    public int health;
+    public int cycleCount;
+
+    // Charge session totals, see ChargeSessionIntegrator
+    public int sessionDirection;
+    public int sessionCharge;       // microampere hours
+    public int sessionEnergy;       // microwatt hours
+    public int sessionAveragePower; // microwatts
+
+    // Time to full or empty, see BatteryTimeEstimator
+    public int timeRemainingDirection;
+    public int timeRemaining;       // seconds, BatteryTimeEstimator.TIME_UNKNOWN if unknown
+    public boolean constantVoltage;
+
+    // Last minute statistics, see BatteryStatistics, indexed by metric * STAT_COUNT + stat
+    public final int[] statistics =
+            new int[BatteryStatistics.METRIC_COUNT * BatteryStatistics.STAT_COUNT];
+
+    /**
+     * Returns whether the given field was read successfully.
+     */
+    public boolean has(int field) {
+        return (valid & field) == field;
+    }
+
+    /**
+     * Copies all fields of the given snapshot into this one.
+     */
+    public void set(BatterySnapshot other) {
+        valid = other.valid;
+        technology = other.technology;
+        technologyText = other.technologyText;
+        status = other.status;
+        usbType = other.usbType;
+        temperature = other.temperature;
+        capacity = other.capacity;
+        capacityLevel = other.capacityLevel;
+        currentNow = other.currentNow;
+        voltageNow = other.voltageNow;
+        health = other.health;
+        cycleCount = other.cycleCount;
+        sessionDirection = other.sessionDirection;
+        sessionCharge = other.sessionCharge;
+        sessionEnergy = other.sessionEnergy;
+        sessionAveragePower = other.sessionAveragePower;
+        timeRemainingDirection = other.timeRemainingDirection;
+        timeRemaining = other.timeRemaining;
+        constantVoltage = other.constantVoltage;
+        System.arraycopy(other.statistics, 0, statistics, 0, statistics.length);
+    }
+
+    /**
+     * Clears all fields so the instance can be refilled.
+     */
+    public void reset() {
+        valid = 0;
+        technology = 0;
+        technologyText = null;
+        status = 0;
+        usbType = 0;
+        temperature = 0;
+        capacity = 0;
+        capacityLevel = 0;
+        currentNow = 0;
+        voltageNow = 0;
+        health = 0;
+        cycleCount = 0;
+        sessionDirection = 0;
+        sessionCharge = 0;
+        sessionEnergy = 0;
+        sessionAveragePower = 0;
+        timeRemainingDirection = 0;
+        timeRemaining = 0;
+        constantVoltage = false;
+        Arrays.fill(statistics, 0);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+
+import org.evolution.pixelparts.Constants;
+import org.evolution.pixelparts.utils.NodeLatency;
+import org.evolution.pixelparts.utils.SysfsNode;
+import org.evolution.pixelparts.utils.SysfsParser;
+
+/**
+ * Fills a {@link BatterySnapshot} from a single read of the battery uevent attribute.
+ *
+ * Every value comes from the same read, so they all describe the same instant. Keys the
+ * uevent does not carry are read from the individual Constants.NODE_* attributes instead.
+ * Parsing works on the raw bytes and does not allocate.
+ *
+ * Reading an attribute can cost a fuel gauge transaction, so read latencies are tracked
+ * per node. Nodes that are slower than their budget on average are only read every
+ * {@link #DEMOTED_READ_INTERVAL} samples, their last value is reused in between. For a
+ * demoted uevent that covers every field it reported last time, so the snapshot stays a
+ * single point in time and the slower uevent is not traded for several individual reads.
+ * Static attributes are read once per reader.
+ */
+public class BatterySnapshotReader implements Closeable {
+
+    private static final int UEVENT_BUFFER_SIZE = 4096;
+
+    // The uevent reports every attribute at once, so it gets a larger budget
+    private static final long UEVENT_LATENCY_BUDGET_NANOS = 5000000;
+    private static final long NODE_LATENCY_BUDGET_NANOS = 1000000;
+    private static final int DEMOTED_READ_INTERVAL = 4;
+
+    // Attributes that do not change while the reader is in use
+    private static final int STATIC_FIELDS = BatterySnapshot.FIELD_TECHNOLOGY
+            | BatterySnapshot.FIELD_HEALTH | BatterySnapshot.FIELD_CYCLE_COUNT;
+
+    // Duration of a whole read(), shown next to the per node figures
+    public static final String REFRESH_LATENCY_NAME = "Battery refresh (total)";
+    private static final NodeLatency sRefreshLatency = NodeLatency.get(REFRESH_LATENCY_NAME);
+
+    private static final String[] UEVENT_KEYS = {
+            "POWER_SUPPLY_TECHNOLOGY",
+            "POWER_SUPPLY_STATUS",
+            "POWER_SUPPLY_TEMP",
+            "POWER_SUPPLY_CAPACITY",
+            "POWER_SUPPLY_CAPACITY_LEVEL",
+            "POWER_SUPPLY_CURRENT_NOW",
+            "POWER_SUPPLY_VOLTAGE_NOW",
+            "POWER_SUPPLY_HEALTH",
+            "POWER_SUPPLY_CYCLE_COUNT"
+    };
+
+    private static final int[] UEVENT_FIELDS = {
+            BatterySnapshot.FIELD_TECHNOLOGY,
+            BatterySnapshot.FIELD_STATUS,
+            BatterySnapshot.FIELD_TEMPERATURE,
+            BatterySnapshot.FIELD_CAPACITY,
+            BatterySnapshot.FIELD_CAPACITY_LEVEL,
+            BatterySnapshot.FIELD_CURRENT,
+            BatterySnapshot.FIELD_VOLTAGE,
+            BatterySnapshot.FIELD_HEALTH,
+            BatterySnapshot.FIELD_CYCLE_COUNT
+    };
+
+    private final SysfsNode mUeventNode =
+            new SysfsNode(Constants.NODE_BATTERY_UEVENT, UEVENT_BUFFER_SIZE);
+    private final SysfsNode mUSBTypeNode = new SysfsNode(Constants.NODE_USB_TYPE);
+
+    // Fallback nodes, in the same order as UEVENT_FIELDS
+    private final SysfsNode[] mFallbackNodes = {
+            new SysfsNode(Constants.NODE_TECHNOLOGY),
+            new SysfsNode(Constants.NODE_STATUS),
+            new SysfsNode(Constants.NODE_TEMPERATURE),
+            new SysfsNode(Constants.NODE_CAPACITY),
+            new SysfsNode(Constants.NODE_CAPACITY_LEVEL),
+            new SysfsNode(Constants.NODE_CURRENT),
+            new SysfsNode(Constants.NODE_VOLTAGE),
+            new SysfsNode(Constants.NODE_HEALTH),
+            new SysfsNode(Constants.NODE_CYCLE_COUNT)
+    };
+
+    // Last values read, reused for static and demoted nodes
+    private final BatterySnapshot mCache = new BatterySnapshot();
+    // Fields the last successful uevent read reported
+    private int mUeventFields;
+    // Whether the last read() read the uevent successfully
+    private boolean mUeventRead;
+    private long mSampleCount;
+
+    /**
+     * Reads the current battery state into the given snapshot.
+     *
+     * @return true if at least one field could be read
+     */
+    public boolean read(BatterySnapshot out) {
+        long start = System.nanoTime();
+        out.reset();
+        boolean demotedDue = mSampleCount++ % DEMOTED_READ_INTERVAL == 0;
+        mUeventRead = false;
+
+        if (demotedDue
+                || !mUeventNode.getLatency().isOverBudget(UEVENT_LATENCY_BUDGET_NANOS)) {
+            int length = mUeventNode.read();
+            if (length > 0) {
+                parseUevent(mUeventNode.getBuffer(), length, out);
+                mUeventRead = true;
+            }
+            mUeventFields = out.valid;
+        } else {
+            // Demoted uevent, reuse everything it reported until the next re-probe
+            for (int i = 0; i < UEVENT_FIELDS.length; i++) {
+                if ((mUeventFields & UEVENT_FIELDS[i]) != 0) {
+                    copyField(UEVENT_FIELDS[i], mCache, out);
+                }
+            }
+        }
+
+        for (int i = 0; i < UEVENT_FIELDS.length; i++) {
+            int field = UEVENT_FIELDS[i];
+            if (out.has(field)) {
+                continue;
+            }
+            if (useCache(mFallbackNodes[i], field, demotedDue)) {
+                copyField(field, mCache, out);
+            } else {
+                readNode(mFallbackNodes[i], field, out);
+            }
+        }
+
+        if (useCache(mUSBTypeNode, BatterySnapshot.FIELD_USB_TYPE, demotedDue)) {
+            copyField(BatterySnapshot.FIELD_USB_TYPE, mCache, out);
+        } else if (mUSBTypeNode.read() >= 0) {
+            parseUSBType(mUSBTypeNode.getBuffer(), mUSBTypeNode.lineLength(), out);
+        }
+
+        for (int field = 1; field <= BatterySnapshot.FIELD_CYCLE_COUNT; field <<= 1) {
+            if (out.has(field)) {
+                copyField(field, out, mCache);
+            }
+        }
+
+        sRefreshLatency.record(System.nanoTime() - start);
+        return out.valid != 0;
+    }
+
+    /**
+     * Returns the battery uevent node if the last {@link #read} read it, or null if it was
+     * skipped or failed. Its buffer holds the contents of that read until the next one.
+     */
+    SysfsNode getUevent() {
+        return mUeventRead ? mUeventNode : null;
+    }
+
+    private boolean useCache(SysfsNode node, int field, boolean demotedDue) {
+        if (!mCache.has(field)) {
+            return false;
+        }
+        return (field & STATIC_FIELDS) != 0
+                || (!demotedDue && node.getLatency().isOverBudget(NODE_LATENCY_BUDGET_NANOS));
+    }
+
+    private static void copyField(int field, BatterySnapshot from, BatterySnapshot to) {
+        switch (field) {
+            case BatterySnapshot.FIELD_TECHNOLOGY:
+                to.technology = from.technology;
+                to.technologyText = from.technologyText;
+                break;
+            case BatterySnapshot.FIELD_STATUS:
+                to.status = from.status;
+                break;
+            case BatterySnapshot.FIELD_USB_TYPE:
+                to.usbType = from.usbType;
+                break;
+            case BatterySnapshot.FIELD_TEMPERATURE:
+                to.temperature = from.temperature;
+                break;
+            case BatterySnapshot.FIELD_CAPACITY:
+                to.capacity = from.capacity;
+                break;
+            case BatterySnapshot.FIELD_CAPACITY_LEVEL:
+                to.capacityLevel = from.capacityLevel;
+                break;
+            case BatterySnapshot.FIELD_CURRENT:
+                to.currentNow = from.currentNow;
+                break;
+            case BatterySnapshot.FIELD_VOLTAGE:
+                to.voltageNow = from.voltageNow;
+                break;
+            case BatterySnapshot.FIELD_HEALTH:
+                to.health = from.health;
+                break;
+            case BatterySnapshot.FIELD_CYCLE_COUNT:
+                to.cycleCount = from.cycleCount;
+                break;
+            default:
+                return;
+        }
+        to.valid |= field;
+    }
+
+    private void parseUevent(byte[] buffer, int length, BatterySnapshot out) {
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            int separator = -1;
+            while (lineEnd < length && buffer[lineEnd] != '\n') {
+                if (separator < 0 && buffer[lineEnd] == '=') {
+                    separator = lineEnd;
+                }
+                lineEnd++;
+            }
+
+            if (separator > lineStart) {
+                for (int i = 0; i < UEVENT_KEYS.length; i++) {
+                    if (matches(buffer, lineStart, separator, UEVENT_KEYS[i])) {
+                        assign(UEVENT_FIELDS[i], buffer, separator + 1, lineEnd, out);
+                        break;
+                    }
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private void readNode(SysfsNode node, int field, BatterySnapshot out) {
+        if (node.read() >= 0) {
+            assign(field, node.getBuffer(), 0, node.lineLength(), out);
+        }
+    }
+
+    private static void parseUSBType(byte[] buffer, int length, BatterySnapshot out) {
+        // The active type is the bracketed one, e.g. "Unknown [SDP] CDP DCP"
+        int start = 0;
+        int end = length;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == '[') {
+                start = i + 1;
+            } else if (buffer[i] == ']') {
+                end = i;
+                break;
+            }
+        }
+        out.usbType = lookup(buffer, start, end, BatterySnapshot.USB_TYPE_VALUES);
+        out.valid |= BatterySnapshot.FIELD_USB_TYPE;
+    }
+
+    private void assign(int field, byte[] buffer, int start, int end, BatterySnapshot out) {
+        switch (field) {
+            case BatterySnapshot.FIELD_TECHNOLOGY:
+                out.technology = lookup(buffer, start, end, BatterySnapshot.TECHNOLOGY_VALUES);
+                out.technologyText = out.technology == BatterySnapshot.VALUE_UNRECOGNIZED
+                        ? text(buffer, start, end, mCache.technologyText) : null;
+                break;
+            case BatterySnapshot.FIELD_STATUS:
+                out.status = lookup(buffer, start, end, BatterySnapshot.STATUS_VALUES);
+                break;
+            case BatterySnapshot.FIELD_CAPACITY_LEVEL:
+                out.capacityLevel = lookup(buffer, start, end,
+                        BatterySnapshot.CAPACITY_LEVEL_VALUES);
+                break;
+            case BatterySnapshot.FIELD_HEALTH:
+                out.health = lookup(buffer, start, end, BatterySnapshot.HEALTH_VALUES);
+                break;
+            default:
+                if (!assignNumber(field, buffer, start, end, out)) {
+                    return;
+                }
+                break;
+        }
+        out.valid |= field;
+    }
+
+    private static boolean assignNumber(int field, byte[] buffer, int start, int end,
+            BatterySnapshot out) {
+        long parsed = SysfsParser.parseLong(buffer, start, end, Long.MIN_VALUE);
+        if (parsed < Integer.MIN_VALUE || parsed > Integer.MAX_VALUE) {
+            return false;
+        }
+        int value = (int) parsed;
+
+        switch (field) {
+            case BatterySnapshot.FIELD_TEMPERATURE:
+                out.temperature = value;
+                return true;
+            case BatterySnapshot.FIELD_CAPACITY:
+                out.capacity = value;
+                return true;
+            case BatterySnapshot.FIELD_CURRENT:
+                out.currentNow = value;
+                return true;
+            case BatterySnapshot.FIELD_VOLTAGE:
+                out.voltageNow = value;
+                return true;
+            case BatterySnapshot.FIELD_CYCLE_COUNT:
+                out.cycleCount = value;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Returns the previous String if the text did not change
+    private static String text(byte[] buffer, int start, int end, String previous) {
+        if (previous != null && matches(buffer, start, end, previous)) {
+            return previous;
+        }
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static int lookup(byte[] buffer, int start, int end, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (matches(buffer, start, end, values[i])) {
+                return i;
+            }
+        }
+        return BatterySnapshot.VALUE_UNRECOGNIZED;
+    }
+
+    private static boolean matches(byte[] buffer, int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        mUeventNode.close();
+        mUSBTypeNode.close();
+        for (SysfsNode node : mFallbackNodes) {
+            node.close();
+        }
+    }
+}
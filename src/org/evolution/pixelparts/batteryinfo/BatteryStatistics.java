@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+/**
+ * Rolling min/max/mean and percentiles of current, wattage and temperature over the last
+ * minute, ten minutes and hour, backed by {@link RollingHistogram}s.
+ *
+ * Memory is fixed at construction and adding a sample is O(1), so this can keep running
+ * for as long as the sampler does. Instances are not thread-safe.
+ */
+public class BatteryStatistics {
+
+    // Metrics, current in milliamperes, wattage in milliwatts, temperature in
+    // deci-degrees Celsius
+    public static final int METRIC_CURRENT = 0;
+    public static final int METRIC_WATTAGE = 1;
+    public static final int METRIC_TEMPERATURE = 2;
+    public static final int METRIC_COUNT = 3;
+
+    public static final int WINDOW_1_MIN = 0;
+    public static final int WINDOW_10_MIN = 1;
+    public static final int WINDOW_1_HOUR = 2;
+    public static final int WINDOW_COUNT = 3;
+
+    // Indexes into the values filled in by get()
+    public static final int STAT_MIN = 0;
+    public static final int STAT_MAX = 1;
+    public static final int STAT_MEAN = 2;
+    public static final int STAT_P50 = 3;
+    public static final int STAT_P95 = 4;
+    public static final int STAT_P99 = 5;
+    public static final int STAT_COUNT = 6;
+
+    private static final long[] WINDOW_DURATIONS_MS = { 60000, 600000, 3600000 };
+    private static final int[] WINDOW_SLOTS = { 6, 10, 12 };
+
+    private static final int[] METRIC_FIELDS = {
+            BatterySnapshot.FIELD_CURRENT,
+            BatterySnapshot.FIELD_CURRENT | BatterySnapshot.FIELD_VOLTAGE,
+            BatterySnapshot.FIELD_TEMPERATURE
+    };
+
+    // Snapshot fields the statistics of each metric are copied to
+    public static final int[] STATISTICS_FIELDS = {
+            BatterySnapshot.FIELD_CURRENT_STATISTICS,
+            BatterySnapshot.FIELD_WATTAGE_STATISTICS,
+            BatterySnapshot.FIELD_TEMPERATURE_STATISTICS
+    };
+
+    // Smallest value expected per metric, -40 degrees Celsius for the temperature
+    private static final long[] METRIC_OFFSETS = { 0, 0, -400 };
+
+    private final RollingHistogram[][] mHistograms =
+            new RollingHistogram[METRIC_COUNT][WINDOW_COUNT];
+
+    public BatteryStatistics() {
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            for (int window = 0; window < WINDOW_COUNT; window++) {
+                mHistograms[metric][window] = new RollingHistogram(
+                        WINDOW_DURATIONS_MS[window], WINDOW_SLOTS[window],
+                        METRIC_OFFSETS[metric]);
+            }
+        }
+    }
+
+    /**
+     * Adds the valid fields of a sample.
+     *
+     * @param timestamp a monotonic timestamp in milliseconds
+     */
+    public void add(long timestamp, BatterySnapshot snapshot) {
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            if (snapshot.has(METRIC_FIELDS[metric])) {
+                long value = getValue(metric, snapshot);
+                for (RollingHistogram histogram : mHistograms[metric]) {
+                    histogram.add(timestamp, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills in the statistics of a metric over a window as of the given time.
+     *
+     * @param out receives the values at the STAT_* indexes
+     * @return false if the window holds no samples
+     */
+    public boolean get(int metric, int window, long timestamp, long[] out) {
+        RollingHistogram histogram = mHistograms[metric][window];
+        histogram.advance(timestamp);
+        if (histogram.size() == 0) {
+            return false;
+        }
+        out[STAT_MIN] = histogram.getMin();
+        out[STAT_MAX] = histogram.getMax();
+        out[STAT_MEAN] = histogram.getMean();
+        out[STAT_P50] = histogram.getPercentile(50);
+        out[STAT_P95] = histogram.getPercentile(95);
+        out[STAT_P99] = histogram.getPercentile(99);
+        return true;
+    }
+
+    /**
+     * Copies the last minute statistics of all metrics into the statistics fields of the
+     * given snapshot.
+     *
+     * @param scratch a buffer of at least STAT_COUNT values, so nothing is allocated
+     */
+    public void fill(long timestamp, BatterySnapshot out, long[] scratch) {
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            if (!get(metric, WINDOW_1_MIN, timestamp, scratch)) {
+                out.valid &= ~STATISTICS_FIELDS[metric];
+                continue;
+            }
+            int base = metric * STAT_COUNT;
+            for (int stat = 0; stat < STAT_COUNT; stat++) {
+                out.statistics[base + stat] = (int) scratch[stat];
+            }
+            out.valid |= STATISTICS_FIELDS[metric];
+        }
+    }
+
+    private static long getValue(int metric, BatterySnapshot snapshot) {
+        switch (metric) {
+            case METRIC_CURRENT:
+                return Math.abs(snapshot.currentNow) / 1000;
+            case METRIC_WATTAGE:
+                // Microamperes times microvolts, scaled down to milliwatts
+                return Math.abs((long) snapshot.currentNow * snapshot.voltageNow) / 1000000000;
+            case METRIC_TEMPERATURE:
+                return snapshot.temperature;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+/**
+ * Online estimate of the time left until the battery is full while charging, or empty
+ * while discharging.
+ *
+ * The capacity trend comes from an exponentially weighted least squares fit of capacity
+ * over time, so older samples fade out instead of being stored. While charging the
+ * current is tracked as well: once the charger switches from constant current to
+ * constant voltage, recognized by the voltage levelling off while the current drops
+ * below its session peak, the remaining time is taken from an exponentially decaying
+ * current instead of the linear trend, which would be far too optimistic for the last
+ * percent.
+ *
+ * State is a few dozen primitives, adding a sample is O(1) and allocates nothing.
+ * Instances are not thread-safe.
+ */
+public class BatteryTimeEstimator {
+
+    // Reported while there is not enough data for an estimate yet
+    public static final int TIME_UNKNOWN = -1;
+
+    private static final int REQUIRED_FIELDS = BatterySnapshot.FIELD_STATUS
+            | BatterySnapshot.FIELD_CAPACITY | BatterySnapshot.FIELD_CURRENT
+            | BatterySnapshot.FIELD_VOLTAGE;
+
+    // Time constants of the fits, capacity moves slower while discharging
+    private static final double CHARGING_CAPACITY_TAU_MS = 10 * 60000;
+    private static final double DISCHARGING_CAPACITY_TAU_MS = 30 * 60000;
+    private static final double VOLTAGE_TAU_MS = 2 * 60000;
+    private static final double CURRENT_TAU_MS = 5 * 60000;
+    private static final double CURRENT_AVERAGE_TAU_MS = 60000;
+
+    // Weighted standard deviation of the sample times a fit needs before it is used
+    private static final double CHARGING_MIN_SPREAD_MS = 2 * 60000;
+    private static final double DISCHARGING_MIN_SPREAD_MS = 5 * 60000;
+    private static final double VOLTAGE_MIN_SPREAD_MS = 60000;
+
+    // Samples are weighted by the time they stand for, up to this long
+    private static final long MAX_WEIGHT_MS = 60000;
+    private static final long FIRST_WEIGHT_MS = 1000;
+
+    // Constant voltage: voltage rising slower than 3mV per minute while the current is
+    // below 85% of its peak, and not before half capacity so thermal throttling early
+    // in a charge is not mistaken for it
+    private static final double CV_VOLTAGE_SLOPE = 3000.0 / 60000;
+    private static final double CV_CURRENT_RATIO = 0.85;
+    private static final int CV_MIN_CAPACITY = 50;
+
+    // Current the charger is assumed to terminate at, relative to the session peak
+    private static final double TERMINATION_CURRENT_RATIO = 0.05;
+
+    // Longest estimate reported, anything beyond is noise
+    private static final long MAX_TIME_MS = 7 * 24 * 3600000L;
+
+    private int mDirection = ChargeSessionIntegrator.DIRECTION_UNKNOWN;
+    private boolean mHasLast;
+    private long mLastTimestamp;
+
+    private final DecayingRegression mCapacityFit = new DecayingRegression();
+    private final DecayingRegression mVoltageFit = new DecayingRegression();
+    private final DecayingRegression mLogCurrentFit = new DecayingRegression();
+
+    private double mAverageCurrent;  // microamperes, absolute
+    private double mPeakCurrent;     // microamperes, highest average of the session
+    // Capacity gained per microampere millisecond, learned during constant current
+    private double mCapacityPerCharge;
+    private boolean mConstantVoltage;
+
+    private int mCapacity;
+    private long mTimeRemaining = TIME_UNKNOWN;
+
+    /**
+     * Weighted least squares fit of y over time with exponential forgetting.
+     *
+     * Times are kept relative to the newest sample, so shifting them on every sample
+     * keeps the sums small enough for doubles.
+     */
+    private static final class DecayingRegression {
+        double s0;  // sum of weights
+        double sx;  // sum of weighted times
+        double sxx;
+        double sy;
+        double sxy;
+
+        void add(long dt, double tau, double weight, double y) {
+            // Move the origin to the new sample, then age everything by dt
+            sxx += dt * (dt * s0 - 2 * sx);
+            sx -= dt * s0;
+            sxy -= dt * sy;
+            double decay = Math.exp(-dt / tau);
+            s0 *= decay;
+            sx *= decay;
+            sxx *= decay;
+            sy *= decay;
+            sxy *= decay;
+
+            s0 += weight;
+            sy += weight * y;
+        }
+
+        // Weighted variance of the sample times
+        double variance() {
+            if (s0 <= 0) {
+                return 0;
+            }
+            double mean = sx / s0;
+            return sxx / s0 - mean * mean;
+        }
+
+        // Change of y per millisecond, only meaningful if the variance is large enough
+        double slope() {
+            double denominator = s0 * sxx - sx * sx;
+            return denominator > 0 ? (s0 * sxy - sx * sy) / denominator : 0;
+        }
+
+        boolean isReady(double minSpreadMs) {
+            return variance() >= minSpreadMs * minSpreadMs;
+        }
+
+        void clear() {
+            s0 = 0;
+            sx = 0;
+            sxx = 0;
+            sy = 0;
+            sxy = 0;
+        }
+    }
+
+    /**
+     * Adds a sample taken at the given time.
+     *
+     * @param timestamp a monotonic timestamp in milliseconds
+     * @param snapshot  the sample, ignored unless status, capacity, current and voltage
+     *                  are valid
+     */
+    public void add(long timestamp, BatterySnapshot snapshot) {
+        if (!snapshot.has(REQUIRED_FIELDS)) {
+            return;
+        }
+
+        int direction = ChargeSessionIntegrator.getDirection(snapshot.status);
+        if (direction != mDirection) {
+            reset(direction);
+        }
+        if (direction == ChargeSessionIntegrator.DIRECTION_UNKNOWN) {
+            return;
+        }
+
+        long dt = mHasLast ? timestamp - mLastTimestamp : 0;
+        if (dt < 0) {
+            return;
+        }
+        long weight = mHasLast ? Math.max(1, Math.min(dt, MAX_WEIGHT_MS)) : FIRST_WEIGHT_MS;
+        double current = Math.abs((double) snapshot.currentNow);
+        boolean charging = direction == ChargeSessionIntegrator.DIRECTION_CHARGING;
+
+        mCapacityFit.add(dt, charging ? CHARGING_CAPACITY_TAU_MS : DISCHARGING_CAPACITY_TAU_MS,
+                weight, snapshot.capacity);
+        if (mHasLast) {
+            mAverageCurrent += (current - mAverageCurrent)
+                    * (1 - Math.exp(-dt / CURRENT_AVERAGE_TAU_MS));
+        } else {
+            mAverageCurrent = current;
+        }
+
+        mHasLast = true;
+        mLastTimestamp = timestamp;
+        mCapacity = snapshot.capacity;
+
+        if (charging) {
+            mVoltageFit.add(dt, VOLTAGE_TAU_MS, weight, snapshot.voltageNow);
+            if (current > 0) {
+                mLogCurrentFit.add(dt, CURRENT_TAU_MS, weight, Math.log(current));
+            }
+            updateChargePhase();
+            mTimeRemaining = estimateTimeToFull(snapshot.status);
+        } else {
+            mTimeRemaining = estimateTimeToEmpty();
+        }
+    }
+
+    private void updateChargePhase() {
+        if (!mVoltageFit.isReady(VOLTAGE_MIN_SPREAD_MS)) {
+            return;
+        }
+        if (!mConstantVoltage) {
+            mPeakCurrent = Math.max(mPeakCurrent, mAverageCurrent);
+        }
+        if (!mConstantVoltage && mCapacity >= CV_MIN_CAPACITY
+                && mVoltageFit.slope() < CV_VOLTAGE_SLOPE
+                && mAverageCurrent < mPeakCurrent * CV_CURRENT_RATIO) {
+            // The charger does not go back to constant current within a session
+            mConstantVoltage = true;
+        }
+        if (!mConstantVoltage && mCapacityFit.isReady(CHARGING_MIN_SPREAD_MS)
+                && mAverageCurrent > 0) {
+            mCapacityPerCharge = mCapacityFit.slope() / mAverageCurrent;
+        }
+    }
+
+    private long estimateTimeToFull(int status) {
+        if (status == BatterySnapshot.STATUS_FULL || mCapacity >= 100) {
+            return 0;
+        }
+        if (!mCapacityFit.isReady(CHARGING_MIN_SPREAD_MS)) {
+            return TIME_UNKNOWN;
+        }
+        double remaining = 100 - mCapacity;
+        double slope = mCapacityFit.slope();
+
+        if (mConstantVoltage && mLogCurrentFit.isReady(CHARGING_MIN_SPREAD_MS)
+                && mLogCurrentFit.slope() < 0) {
+            // The current decays as I(t) = I * e^(-t / tau), so the capacity still to come
+            // is rate * tau, reached asymptotically
+            double tau = -1 / mLogCurrentFit.slope();
+            double rate = mCapacityPerCharge > 0 ? mCapacityPerCharge * mAverageCurrent : slope;
+            double reachable = rate * tau;
+            if (reachable > remaining) {
+                return clampTime(-tau * Math.log(1 - remaining / reachable));
+            }
+            // Not reached before the charger terminates, estimate that instead
+            double termination = mPeakCurrent * TERMINATION_CURRENT_RATIO;
+            if (mAverageCurrent > termination && termination > 0) {
+                return clampTime(tau * Math.log(mAverageCurrent / termination));
+            }
+            return TIME_UNKNOWN;
+        }
+
+        return slope > 0 ? clampTime(remaining / slope) : TIME_UNKNOWN;
+    }
+
+    private long estimateTimeToEmpty() {
+        if (!mCapacityFit.isReady(DISCHARGING_MIN_SPREAD_MS)) {
+            return TIME_UNKNOWN;
+        }
+        double slope = mCapacityFit.slope();
+        return slope < 0 ? clampTime(mCapacity / -slope) : TIME_UNKNOWN;
+    }
+
+    private static long clampTime(double timeMs) {
+        if (Double.isNaN(timeMs) || timeMs < 0) {
+            return TIME_UNKNOWN;
+        }
+        return (long) Math.min(timeMs, MAX_TIME_MS);
+    }
+
+    /**
+     * Copies the estimate into the time remaining fields of the given snapshot.
+     */
+    public void fill(BatterySnapshot out) {
+        if (mDirection == ChargeSessionIntegrator.DIRECTION_UNKNOWN) {
+            out.valid &= ~BatterySnapshot.FIELD_TIME_REMAINING;
+            return;
+        }
+        out.timeRemainingDirection = mDirection;
+        out.timeRemaining = mTimeRemaining == TIME_UNKNOWN
+                ? TIME_UNKNOWN : (int) (mTimeRemaining / 1000);
+        out.constantVoltage = mConstantVoltage;
+        out.valid |= BatterySnapshot.FIELD_TIME_REMAINING;
+    }
+
+    /**
+     * Returns the direction the estimate is for, one of the
+     * ChargeSessionIntegrator.DIRECTION_* constants.
+     */
+    public int getDirection() {
+        return mDirection;
+    }
+
+    /**
+     * Returns whether the charger was seen switching to constant voltage.
+     */
+    public boolean isConstantVoltage() {
+        return mConstantVoltage;
+    }
+
+    /**
+     * Drops all state, the next sample starts a new estimate.
+     */
+    public void reset() {
+        reset(ChargeSessionIntegrator.DIRECTION_UNKNOWN);
+    }
+
+    private void reset(int direction) {
+        mDirection = direction;
+        mHasLast = false;
+        mCapacityFit.clear();
+        mVoltageFit.clear();
+        mLogCurrentFit.clear();
+        mAverageCurrent = 0;
+        mPeakCurrent = 0;
+        mCapacityPerCharge = 0;
+        mConstantVoltage = false;
+        mTimeRemaining = TIME_UNKNOWN;
+    }
+}
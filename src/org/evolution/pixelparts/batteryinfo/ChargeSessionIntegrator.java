@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+/**
+ * Integrates charge and energy over the current charge or discharge session.
+ *
+ * Consecutive samples are combined with the trapezoidal rule. Intervals longer than
+ * {@link #MAX_GAP_MS}, e.g. while the device slept or nobody was sampling, are skipped
+ * instead of being bridged with a straight line, and do not count towards the session
+ * duration either. A new session starts whenever the status switches between charging
+ * and discharging.
+ *
+ * State is a handful of primitives, adding a sample is O(1) and allocates nothing.
+ * Instances are not thread-safe.
+ */
+public class ChargeSessionIntegrator {
+
+    // Longest interval between two samples that is still integrated
+    public static final long MAX_GAP_MS = 90000;
+
+    public static final int DIRECTION_UNKNOWN = 0;
+    public static final int DIRECTION_CHARGING = 1;
+    public static final int DIRECTION_DISCHARGING = 2;
+
+    private static final int REQUIRED_FIELDS = BatterySnapshot.FIELD_STATUS
+            | BatterySnapshot.FIELD_CURRENT | BatterySnapshot.FIELD_VOLTAGE;
+
+    private static final long MS_PER_HOUR = 3600000;
+
+    private int mDirection = DIRECTION_UNKNOWN;
+
+    private boolean mHasLast;
+    private long mLastTimestamp;
+    private long mLastCurrent;  // microamperes, absolute
+    private long mLastPower;    // microwatts, absolute
+
+    // Doubled trapezoid sums, halved when read
+    private long mCharge2;      // microamperes times milliseconds
+    private long mEnergy2;      // microwatts times milliseconds
+    private long mIntegratedMs;
+
+    /**
+     * Adds a sample taken at the given time.
+     *
+     * @param timestamp a monotonic timestamp in milliseconds
+     * @param snapshot  the sample, ignored unless status, current and voltage are valid
+     */
+    public void add(long timestamp, BatterySnapshot snapshot) {
+        if (!snapshot.has(REQUIRED_FIELDS)) {
+            return;
+        }
+
+        int direction = getDirection(snapshot.status);
+        if (direction != DIRECTION_UNKNOWN && direction != mDirection) {
+            reset(direction);
+        }
+
+        long current = Math.abs((long) snapshot.currentNow);
+        long power = Math.abs((long) snapshot.currentNow * snapshot.voltageNow) / 1000000;
+
+        if (mHasLast) {
+            long dt = timestamp - mLastTimestamp;
+            if (dt > 0 && dt <= MAX_GAP_MS) {
+                mCharge2 += (mLastCurrent + current) * dt;
+                mEnergy2 += (mLastPower + power) * dt;
+                mIntegratedMs += dt;
+            }
+        }
+
+        mHasLast = true;
+        mLastTimestamp = timestamp;
+        mLastCurrent = current;
+        mLastPower = power;
+    }
+
+    /**
+     * Copies the session totals into the session fields of the given snapshot.
+     */
+    public void fill(BatterySnapshot out) {
+        if (mDirection == DIRECTION_UNKNOWN) {
+            out.valid &= ~BatterySnapshot.FIELD_SESSION;
+            return;
+        }
+        out.sessionDirection = mDirection;
+        out.sessionCharge = (int) getChargeMicroAmpHours();
+        out.sessionEnergy = (int) getEnergyMicroWattHours();
+        out.sessionAveragePower = (int) getAveragePowerMicroWatts();
+        out.valid |= BatterySnapshot.FIELD_SESSION;
+    }
+
+    /**
+     * Returns the direction of the current session, one of the DIRECTION_* constants.
+     */
+    public int getDirection() {
+        return mDirection;
+    }
+
+    public long getChargeMicroAmpHours() {
+        return mCharge2 / 2 / MS_PER_HOUR;
+    }
+
+    public long getEnergyMicroWattHours() {
+        return mEnergy2 / 2 / MS_PER_HOUR;
+    }
+
+    public long getAveragePowerMicroWatts() {
+        return mIntegratedMs > 0 ? mEnergy2 / 2 / mIntegratedMs : mLastPower;
+    }
+
+    /**
+     * Drops the current session, the next sample starts a new one.
+     */
+    public void reset() {
+        reset(DIRECTION_UNKNOWN);
+    }
+
+    private void reset(int direction) {
+        mDirection = direction;
+        mHasLast = false;
+        mCharge2 = 0;
+        mEnergy2 = 0;
+        mIntegratedMs = 0;
+    }
+
+    static int getDirection(int status) {
+        switch (status) {
+            case BatterySnapshot.STATUS_CHARGING:
+            case BatterySnapshot.STATUS_FULL:
+                return DIRECTION_CHARGING;
+            case BatterySnapshot.STATUS_DISCHARGING:
+            case BatterySnapshot.STATUS_NOT_CHARGING:
+                return DIRECTION_DISCHARGING;
+            default:
+                return DIRECTION_UNKNOWN;
+        }
+    }
+}
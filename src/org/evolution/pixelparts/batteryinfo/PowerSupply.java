@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.evolution.pixelparts.utils.SysfsNode;
+
+/**
+ * One /sys/class/power_supply device and its readable attributes, as found by
+ * {@link PowerSupplyIndex}.
+ *
+ * Name, type and attribute names never change. Attribute values are refreshed on the
+ * sampler thread from a single read of the supply's uevent attribute, which reports most
+ * of them at once. Attributes the uevent does not report are read from their own nodes,
+ * but only every {@link #UNREPORTED_READ_INTERVAL} refreshes, as they are mostly static
+ * limits and configuration. Values are published as an immutable array that any thread
+ * may read through {@link #getValues()}; a new array is only built when a value changed,
+ * and only changed values are turned into new Strings.
+ */
+public class PowerSupply implements Closeable {
+
+    private static final int UEVENT_BUFFER_SIZE = 4096;
+    private static final String UEVENT_KEY_PREFIX = "POWER_SUPPLY_";
+
+    private static final int UNREPORTED_READ_INTERVAL = 4;
+
+    private final String mName;
+    private final String mType;
+    private final String mUeventPath;
+    private final String[] mAttributes;
+    // Key each attribute is reported under in the uevent, e.g. POWER_SUPPLY_CURRENT_NOW
+    private final String[] mUeventKeys;
+
+    // Only used on the sampler thread
+    private final SysfsNode mUeventNode;
+    private final SysfsNode[] mNodes;
+    private final boolean[] mReported;
+    private long mRefreshCount;
+
+    private volatile String[] mValues;
+
+    PowerSupply(String directory, String name, String type, String[] attributes) {
+        mName = name;
+        mType = type;
+        mUeventPath = directory + "/uevent";
+        mAttributes = attributes;
+        mUeventKeys = new String[attributes.length];
+        mNodes = new SysfsNode[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            mUeventKeys[i] = UEVENT_KEY_PREFIX + attributes[i].toUpperCase(Locale.ROOT);
+            mNodes[i] = new SysfsNode(directory + "/" + attributes[i]);
+        }
+        mUeventNode = new SysfsNode(mUeventPath, UEVENT_BUFFER_SIZE);
+        mReported = new boolean[attributes.length];
+        mValues = new String[attributes.length];
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the contents of the type attribute, e.g. "USB" or "Wireless", or null.
+     */
+    public String getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the path of the uevent attribute the supply is refreshed from.
+     */
+    public String getUeventPath() {
+        return mUeventPath;
+    }
+
+    public String[] getAttributes() {
+        return mAttributes;
+    }
+
+    /**
+     * Returns the last read values, indexed like {@link #getAttributes()}, null for
+     * attributes that could not be read. The array must not be modified.
+     */
+    public String[] getValues() {
+        return mValues;
+    }
+
+    /**
+     * Re-reads the uevent and refreshes the attributes from it, runs on the sampler
+     * thread.
+     */
+    public void refresh() {
+        int length = mUeventNode.read();
+        refresh(mUeventNode.getBuffer(), length);
+    }
+
+    /**
+     * Refreshes the attributes from uevent contents someone else already read, runs on
+     * the sampler thread.
+     *
+     * @param uevent the uevent contents
+     * @param length the number of valid bytes, or -1 if the uevent could not be read
+     */
+    public void refresh(byte[] uevent, int length) {
+        boolean unreportedDue = mRefreshCount++ % UNREPORTED_READ_INTERVAL == 0;
+        String[] values = mValues;
+        String[] updated = null;
+
+        Arrays.fill(mReported, false);
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            int separator = -1;
+            while (lineEnd < length && uevent[lineEnd] != '\n') {
+                if (separator < 0 && uevent[lineEnd] == '=') {
+                    separator = lineEnd;
+                }
+                lineEnd++;
+            }
+
+            int index = separator > lineStart ? findAttribute(uevent, lineStart, separator) : -1;
+            if (index >= 0) {
+                mReported[index] = true;
+                String value = readValue(uevent, separator + 1, lineEnd, values[index]);
+                if (value != values[index]) {
+                    if (updated == null) {
+                        updated = values.clone();
+                    }
+                    updated[index] = value;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        for (int i = 0; i < mNodes.length; i++) {
+            if (mReported[i] || (!unreportedDue && values[i] != null)) {
+                continue;
+            }
+            SysfsNode node = mNodes[i];
+            String value = node.read() >= 0
+                    ? readValue(node.getBuffer(), 0, node.lineLength(), values[i]) : null;
+            if (value != values[i]) {
+                if (updated == null) {
+                    updated = values.clone();
+                }
+                updated[i] = value;
+            }
+        }
+        if (updated != null) {
+            mValues = updated;
+        }
+    }
+
+    private int findAttribute(byte[] buffer, int start, int end) {
+        for (int i = 0; i < mUeventKeys.length; i++) {
+            String key = mUeventKeys[i];
+            if (key.length() != end - start) {
+                continue;
+            }
+            boolean same = true;
+            for (int j = 0; j < key.length() && same; j++) {
+                same = buffer[start + j] == key.charAt(j);
+            }
+            if (same) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the previous String if the value did not change
+    private static String readValue(byte[] buffer, int start, int end, String previous) {
+        int length = end - start;
+        if (previous != null && previous.length() == length) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = buffer[start + i] == previous.charAt(i);
+            }
+            if (same) {
+                return previous;
+            }
+        }
+        return new String(buffer, start, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        mUeventNode.close();
+        for (SysfsNode node : mNodes) {
+            node.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.evolution.pixelparts.Constants;
+import org.evolution.pixelparts.utils.SysfsNode;
+import org.evolution.pixelparts.utils.SysfsRoot;
+
+/**
+ * Index of all /sys/class/power_supply devices and their readable attributes.
+ *
+ * The directory is scanned by {@link #getSupplies()} and then only again after
+ * {@link #invalidate()}, which is meant to be called for power_supply add and remove
+ * uevents. The index itself is an immutable array, so it can be read from any thread.
+ */
+public class PowerSupplyIndex {
+
+    // Attributes shown first, in this order, the rest follow alphabetically
+    private static final String[] PRIORITY_ATTRIBUTES = {
+            "online", "status", "current_now", "voltage_now", "input_current_limit",
+            "current_max", "voltage_max", "input_voltage_limit", "usb_type", "capacity", "temp"
+    };
+
+    // Attributes that are not worth showing
+    private static final String[] IGNORED_ATTRIBUTES = { "uevent", "type" };
+
+    private final Object mLock = new Object();
+    private volatile PowerSupply[] mSupplies;
+
+    /**
+     * Returns the indexed supplies, scanning the directory first if needed.
+     * The array must not be modified.
+     */
+    public PowerSupply[] getSupplies() {
+        PowerSupply[] supplies = mSupplies;
+        if (supplies == null) {
+            synchronized (mLock) {
+                supplies = mSupplies;
+                if (supplies == null) {
+                    supplies = scan();
+                    mSupplies = supplies;
+                }
+            }
+        }
+        return supplies;
+    }
+
+    /**
+     * Returns the indexed supplies without scanning, or null if the index has not been
+     * built since the last {@link #invalidate()}. The array must not be modified.
+     */
+    public PowerSupply[] peekSupplies() {
+        return mSupplies;
+    }
+
+    /**
+     * Drops the index, the next {@link #getSupplies()} scans again. Supplies handed out
+     * before are not closed, that is up to whoever refreshed them.
+     */
+    public void invalidate() {
+        mSupplies = null;
+    }
+
+    private static PowerSupply[] scan() {
+        File classDirectory = new File(SysfsRoot.resolve(Constants.NODE_POWER_SUPPLY_CLASS));
+        String[] names = classDirectory.list();
+        if (names == null) {
+            return new PowerSupply[0];
+        }
+        Arrays.sort(names);
+
+        List<PowerSupply> supplies = new ArrayList<>();
+        for (String name : names) {
+            String directory = Constants.NODE_POWER_SUPPLY_CLASS + "/" + name;
+            // Entries are symlinks to the device directories, follow them
+            File[] files = new File(SysfsRoot.resolve(directory)).listFiles();
+            if (files == null) {
+                continue;
+            }
+
+            List<String> attributes = new ArrayList<>();
+            for (File file : files) {
+                String attribute = file.getName();
+                if (file.isFile() && file.canRead() && !isIgnored(attribute)) {
+                    attributes.add(attribute);
+                }
+            }
+            attributes.sort(PowerSupplyIndex::compareAttributes);
+
+            String type;
+            try (SysfsNode typeNode = new SysfsNode(directory + "/type")) {
+                type = typeNode.readLine();
+            }
+            supplies.add(new PowerSupply(directory, name, type,
+                    attributes.toArray(new String[0])));
+        }
+        return supplies.toArray(new PowerSupply[0]);
+    }
+
+    private static boolean isIgnored(String attribute) {
+        for (String ignored : IGNORED_ATTRIBUTES) {
+            if (ignored.equals(attribute)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int compareAttributes(String a, String b) {
+        int priorityA = getPriority(a);
+        int priorityB = getPriority(b);
+        if (priorityA != priorityB) {
+            return Integer.compare(priorityA, priorityB);
+        }
+        return a.compareTo(b);
+    }
+
+    private static int getPriority(String attribute) {
+        for (int i = 0; i < PRIORITY_ATTRIBUTES.length; i++) {
+            if (PRIORITY_ATTRIBUTES[i].equals(attribute)) {
+                return i;
+            }
+        }
+        return PRIORITY_ATTRIBUTES.length;
+    }
+}
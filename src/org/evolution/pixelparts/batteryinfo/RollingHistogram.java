@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory histogram over a rolling time window.
+ *
+ * Values are counted in logarithmic buckets: exact below 16, then 8 buckets per power of
+ * two, which keeps percentiles within about 6% of the real value. The window is split in
+ * slots that each keep their own counts; when time moves past a slot its counts are
+ * subtracted from the window totals and it is reused for the newest samples.
+ *
+ * Everything lives in primitive arrays sized at construction. Adding a sample is O(1),
+ * percentile queries walk the fixed bucket array. Percentiles are per sample, not
+ * weighted by time. Instances are not thread-safe.
+ */
+public class RollingHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    // Largest value that can be told apart, larger ones land in the last bucket
+    private static final long MAX_VALUE = (1L << 24) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final long mSlotDurationMs;
+    private final long mOffset;
+
+    private final int[][] mSlotCounts;
+    private final long[] mSlotSums;
+    private final int[] mSlotSizes;
+    private final long[] mSlotMins;
+    private final long[] mSlotMaxs;
+
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private long mSum;
+    private int mSize;
+
+    // Number of the slot period the newest slot covers, -1 before the first sample
+    private long mCurrentPeriod = -1;
+
+    /**
+     * @param windowMs the length of the window
+     * @param slots    the number of slots the window is split in, more slots make the
+     *                 window edge sharper but cost more memory
+     * @param offset   the smallest value expected, smaller values are counted as this
+     *                 one by the percentiles
+     */
+    public RollingHistogram(long windowMs, int slots, long offset) {
+        mSlotDurationMs = Math.max(1, windowMs / slots);
+        mOffset = offset;
+        mSlotCounts = new int[slots][BUCKET_COUNT];
+        mSlotSums = new long[slots];
+        mSlotSizes = new int[slots];
+        mSlotMins = new long[slots];
+        mSlotMaxs = new long[slots];
+    }
+
+    /**
+     * Adds a sample taken at the given time.
+     *
+     * @param timestamp a monotonic timestamp in milliseconds, not older than earlier ones
+     */
+    public void add(long timestamp, long value) {
+        advance(timestamp);
+        int slot = (int) (mCurrentPeriod % mSlotSizes.length);
+        int bucket = bucketIndex(Math.min(Math.max(value - mOffset, 0), MAX_VALUE));
+
+        mSlotCounts[slot][bucket]++;
+        mCounts[bucket]++;
+        if (mSlotSizes[slot] == 0) {
+            mSlotMins[slot] = value;
+            mSlotMaxs[slot] = value;
+        } else {
+            mSlotMins[slot] = Math.min(mSlotMins[slot], value);
+            mSlotMaxs[slot] = Math.max(mSlotMaxs[slot], value);
+        }
+        mSlotSums[slot] += value;
+        mSlotSizes[slot]++;
+        mSum += value;
+        mSize++;
+    }
+
+    /**
+     * Drops the samples that fell out of the window by the given time.
+     * Call this before querying if no sample was added recently.
+     */
+    public void advance(long timestamp) {
+        long period = timestamp / mSlotDurationMs;
+        if (mCurrentPeriod < 0) {
+            mCurrentPeriod = period;
+            return;
+        }
+        if (period <= mCurrentPeriod) {
+            return;
+        }
+        if (period - mCurrentPeriod >= mSlotSizes.length) {
+            clear();
+            mCurrentPeriod = period;
+            return;
+        }
+        while (mCurrentPeriod < period) {
+            mCurrentPeriod++;
+            evict((int) (mCurrentPeriod % mSlotSizes.length));
+        }
+    }
+
+    /**
+     * Drops all samples.
+     */
+    public void clear() {
+        for (int slot = 0; slot < mSlotSizes.length; slot++) {
+            if (mSlotSizes[slot] != 0) {
+                Arrays.fill(mSlotCounts[slot], 0);
+                mSlotSums[slot] = 0;
+                mSlotSizes[slot] = 0;
+            }
+        }
+        Arrays.fill(mCounts, 0);
+        mSum = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of samples in the window.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getMin() {
+        long min = Long.MAX_VALUE;
+        for (int slot = 0; slot < mSlotSizes.length; slot++) {
+            if (mSlotSizes[slot] != 0) {
+                min = Math.min(min, mSlotMins[slot]);
+            }
+        }
+        return mSize != 0 ? min : 0;
+    }
+
+    public long getMax() {
+        long max = Long.MIN_VALUE;
+        for (int slot = 0; slot < mSlotSizes.length; slot++) {
+            if (mSlotSizes[slot] != 0) {
+                max = Math.max(max, mSlotMaxs[slot]);
+            }
+        }
+        return mSize != 0 ? max : 0;
+    }
+
+    public long getMean() {
+        return mSize != 0 ? mSum / mSize : 0;
+    }
+
+    /**
+     * Returns the value below which the given share of samples fall.
+     *
+     * @param percentile the share in percent, between 0 and 100
+     */
+    public long getPercentile(double percentile) {
+        if (mSize == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * mSize);
+        rank = Math.max(1, Math.min(rank, mSize));
+
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= rank) {
+                long value = bucketMidpoint(bucket) + mOffset;
+                return Math.max(getMin(), Math.min(value, getMax()));
+            }
+        }
+        return getMax();
+    }
+
+    private void evict(int slot) {
+        if (mSlotSizes[slot] == 0) {
+            return;
+        }
+        int[] counts = mSlotCounts[slot];
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            mCounts[bucket] -= counts[bucket];
+            counts[bucket] = 0;
+        }
+        mSum -= mSlotSums[slot];
+        mSize -= mSlotSizes[slot];
+        mSlotSums[slot] = 0;
+        mSlotSizes[slot] = 0;
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int mantissa = (int) (value >>> exponent);
+        return SUB_BUCKET_COUNT + (exponent - 1) * SUB_BUCKET_HALF + mantissa - SUB_BUCKET_HALF;
+    }
+
+    private static long bucketMidpoint(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int index = bucket - SUB_BUCKET_COUNT;
+        int exponent = index / SUB_BUCKET_HALF + 1;
+        long lower = (long) (index % SUB_BUCKET_HALF + SUB_BUCKET_HALF) << exponent;
+        return lower + (1L << exponent) / 2;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import android.text.TextUtils;
+
+import androidx.preference.Preference;
+
+/**
+ * Renders preference summaries only when they actually change.
+ *
+ * Callers first ask {@link #hasChanged(int, long)} with the raw value behind a summary and
+ * only format text when it changed; {@link #setSummary(int, CharSequence)} then skips
+ * the setSummary call, and the resulting RecyclerView rebind, when the text is the same.
+ * Summaries formatted from several values use
+ * {@link #hasChanged(int, int[], int, int)} instead, which compares all of them.
+ */
+public class SummaryRenderer {
+
+    private final Preference[] mPreferences;
+    private final long[] mValues;
+    private final int[][] mArrayValues;
+    private final boolean[] mHasValue;
+    private final boolean[] mError;
+    private final CharSequence[] mSummaries;
+
+    public SummaryRenderer(Preference[] preferences) {
+        mPreferences = preferences;
+        mValues = new long[preferences.length];
+        mArrayValues = new int[preferences.length][];
+        mHasValue = new boolean[preferences.length];
+        mError = new boolean[preferences.length];
+        mSummaries = new CharSequence[preferences.length];
+    }
+
+    /**
+     * Records the raw value behind the summary of the given preference.
+     *
+     * @return true if it differs from the last recorded value and the summary needs to be
+     *         formatted again
+     */
+    public boolean hasChanged(int index, long value) {
+        if (mHasValue[index] && mValues[index] == value && !mError[index]) {
+            return false;
+        }
+        mValues[index] = value;
+        mHasValue[index] = true;
+        return true;
+    }
+
+    /**
+     * Like {@link #hasChanged(int, long)} for a summary formatted from several values.
+     *
+     * @param values the array holding the values
+     * @param offset the index of the first value in the array
+     * @param length the number of values, the same on every call for a preference
+     */
+    public boolean hasChanged(int index, int[] values, int offset, int length) {
+        int[] last = mArrayValues[index];
+        if (last == null) {
+            last = new int[length];
+            mArrayValues[index] = last;
+        } else if (mHasValue[index] && !mError[index]
+                && equals(last, values, offset)) {
+            return false;
+        }
+        System.arraycopy(values, offset, last, 0, length);
+        mHasValue[index] = true;
+        return true;
+    }
+
+    private static boolean equals(int[] last, int[] values, int offset) {
+        for (int i = 0; i < last.length; i++) {
+            if (last[i] != values[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the summary of the given preference if it differs from the rendered one.
+     */
+    public void setSummary(int index, CharSequence summary) {
+        Preference preference = mPreferences[index];
+        if (preference == null) {
+            return;
+        }
+        if (mError[index]) {
+            mError[index] = false;
+            preference.setEnabled(true);
+        }
+        if (!TextUtils.equals(mSummaries[index], summary)) {
+            mSummaries[index] = summary;
+            preference.setSummary(summary);
+        }
+    }
+
+    /**
+     * Shows the given error as the summary and disables the preference, once.
+     */
+    public void setError(int index, CharSequence error) {
+        Preference preference = mPreferences[index];
+        if (preference == null || mError[index]) {
+            return;
+        }
+        mError[index] = true;
+        mHasValue[index] = false;
+        mSummaries[index] = error;
+        preference.setSummary(error);
+        preference.setEnabled(false);
+    }
+
+    /**
+     * Forgets the recorded value, e.g. after a display setting changed, so the next
+     * hasChanged call returns true.
+     */
+    public void invalidate(int index) {
+        mHasValue[index] = false;
+    }
+}
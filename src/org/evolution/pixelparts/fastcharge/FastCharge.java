@@ -8,6 +8,7 @@ package org.evolution.pixelparts.fastcharge;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.util.Log;
 import android.widget.Switch;
 
 import androidx.preference.Preference;
@@ -19,11 +20,21 @@ import com.android.settingslib.widget.OnMainSwitchChangeListener;
 
 import org.evolution.pixelparts.Constants;
 import org.evolution.pixelparts.R;
-import org.evolution.pixelparts.utils.FileUtils;
+import org.evolution.pixelparts.utils.NodeCapabilityCache;
+import org.evolution.pixelparts.utils.SysfsWriter;
 
 public class FastCharge extends PreferenceFragment implements OnMainSwitchChangeListener {
     private static final String TAG = FastCharge.class.getSimpleName();
 
+    private static final SysfsWriter.Callback sWriteCallback = new SysfsWriter.Callback() {
+        @Override
+        public void onWriteComplete(String node, String value, boolean success) {
+            if (!success) {
+                Log.e(TAG, "Could not write " + value + " to " + node);
+            }
+        }
+    };
+
     private MainSwitchPreference mFastChargeSwitch;
 
     @Override
@@ -40,15 +51,32 @@ public class FastCharge extends PreferenceFragment implements OnMainSwitchChange
     public void onSwitchChanged(Switch switchView, boolean isChecked) {
         SharedPreferences.Editor prefChange = PreferenceManager.getDefaultSharedPreferences(getContext()).edit();
         prefChange.putBoolean(Constants.KEY_FAST_CHARGE, isChecked).apply();
-        FileUtils.writeValue(Constants.NODE_FAST_CHARGE, isChecked ? "1" : "0");
+        writeFastChargeNode(isChecked);
+    }
+
+    public static void writeFastChargeNode(boolean enabled) {
+        SysfsWriter.getInstance().write(Constants.NODE_FAST_CHARGE, enabled ? "1" : "0",
+                sWriteCallback);
     }
 
-    public static void restoreFastChargeSetting(Context context) {
-        if (FileUtils.isFileWritable(Constants.NODE_FAST_CHARGE)) {
-            SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-            boolean value = sharedPrefs.getBoolean(Constants.KEY_FAST_CHARGE, false);
-            FileUtils.writeValue(Constants.NODE_FAST_CHARGE, value ? "1" : "0");
+    /**
+     * Writes the saved fast charge setting back to the node.
+     *
+     * @param onRestored run once the write was performed or skipped, possibly on the
+     *                   writer thread
+     */
+    public static void restoreFastChargeSetting(Context context, Runnable onRestored) {
+        if (!NodeCapabilityCache.isWritable(Constants.NODE_FAST_CHARGE)) {
+            onRestored.run();
+            return;
         }
+
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean value = sharedPrefs.getBoolean(Constants.KEY_FAST_CHARGE, false);
+        SysfsWriter.getInstance().write(Constants.NODE_FAST_CHARGE, value ? "1" : "0",
+                (node, written, success) -> {
+                    sWriteCallback.onWriteComplete(node, written, success);
+                    onRestored.run();
+                });
     }
 }
-
@@ -12,13 +12,13 @@ import androidx.preference.PreferenceManager;
 
 import org.evolution.pixelparts.Constants;
 import org.evolution.pixelparts.R;
-import org.evolution.pixelparts.utils.FileUtils;
+import org.evolution.pixelparts.utils.NodeCapabilityCache;
 
 public class FastChargeTileService extends TileService {
 
     private void updateTile(boolean enabled) {
         final Tile tile = getQsTile();
-        if (FileUtils.isFileWritable(Constants.NODE_FAST_CHARGE)) {
+        if (NodeCapabilityCache.isWritable(Constants.NODE_FAST_CHARGE)) {
             tile.setState(enabled ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
             String subtitle = enabled ? getString(R.string.tile_on) : getString(R.string.tile_off);
             tile.setSubtitle(subtitle);
@@ -46,7 +46,7 @@ public class FastChargeTileService extends TileService {
         super.onClick();
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
         final boolean enabled = !(sharedPrefs.getBoolean(Constants.KEY_FAST_CHARGE, false));
-        FileUtils.writeValue(Constants.NODE_FAST_CHARGE, enabled ? "1" : "0");
+        FastCharge.writeFastChargeNode(enabled);
         sharedPrefs.edit().putBoolean(Constants.KEY_FAST_CHARGE, enabled).commit();
         updateTile(enabled);
     }
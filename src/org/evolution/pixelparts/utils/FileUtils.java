@@ -34,7 +34,7 @@ public class FileUtils {
         BufferedReader reader = null;
 
         try {
-            reader = new BufferedReader(new FileReader(fileName), 512);
+            reader = new BufferedReader(new FileReader(SysfsRoot.resolve(fileName)), 512);
             line = reader.readLine();
         } catch (FileNotFoundException e) {
             Log.w(TAG, "No such file " + fileName + " for reading", e);
@@ -63,7 +63,7 @@ public class FileUtils {
             return;
         }
         try {
-            FileOutputStream fos = new FileOutputStream(new File(filename));
+            FileOutputStream fos = new FileOutputStream(new File(SysfsRoot.resolve(filename)));
             fos.write(value.getBytes());
             fos.flush();
             fos.close();
@@ -95,7 +95,7 @@ public class FileUtils {
      * @return true if exists, false if not
      */
     public static boolean fileExists(String fileName) {
-        final File file = new File(fileName);
+        final File file = new File(SysfsRoot.resolve(fileName));
         return file.exists();
     }
 
@@ -105,7 +105,7 @@ public class FileUtils {
      * @return true if readable, false if not
      */
     public static boolean isFileReadable(String fileName) {
-        final File file = new File(fileName);
+        final File file = new File(SysfsRoot.resolve(fileName));
         return file.exists() && file.canRead();
     }
 
@@ -115,7 +115,7 @@ public class FileUtils {
      * @return true if writable, false if not
      */
     public static boolean isFileWritable(String fileName) {
-        final File file = new File(fileName);
+        final File file = new File(SysfsRoot.resolve(fileName));
         return file.exists() && file.canWrite();
     }
 }
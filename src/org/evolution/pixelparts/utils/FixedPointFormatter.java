@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+public class FixedPointFormatter {
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+            1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L,
+            100000000000000L, 1000000000000000L, 10000000000000000L, 100000000000000000L,
+            1000000000000000000L
+    };
+
+    /**
+     * Appends a scaled integer as a decimal number, rounding half up like
+     * {@code String.format("%.Nf")}, without allocating anything but builder growth.
+     * For example a voltage of 4123456 microvolts with scale 6 and 1 fraction digit
+     * is appended as "4.1".
+     *
+     * Like {@code String.format}, negative values keep their sign even when they round
+     * to zero, so -40000 with scale 6 and 1 fraction digit is appended as "-0.0". The
+     * whole long range is supported, including {@link Long#MIN_VALUE}.
+     *
+     * @param builder        the builder to append to
+     * @param value          the scaled value
+     * @param scale          the number of decimal digits value is scaled by
+     * @param fractionDigits the number of fraction digits to print, at most scale
+     * @return the builder, for chaining
+     */
+    public static StringBuilder append(StringBuilder builder, long value, int scale,
+            int fractionDigits) {
+        if (fractionDigits > scale) {
+            throw new IllegalArgumentException("fractionDigits must not exceed scale");
+        }
+
+        // Work on the negated magnitude, which unlike the magnitude always fits a long
+        long negative = value < 0 ? value : -value;
+        long divisor = POWERS_OF_TEN[scale - fractionDigits];
+        long rounded = negative / divisor;
+        if (-(negative % divisor) >= divisor - divisor / 2 && divisor > 1) {
+            rounded--;
+        }
+
+        if (value < 0) {
+            builder.append('-');
+        }
+
+        long unit = POWERS_OF_TEN[fractionDigits];
+        long integer = rounded / unit;
+        if (integer == Long.MIN_VALUE) {
+            // Only reachable for Long.MIN_VALUE itself, whose magnitude has no long
+            builder.append(Long.toString(integer), 1, 20);
+        } else {
+            builder.append(-integer);
+        }
+        if (fractionDigits > 0) {
+            builder.append('.');
+            long fraction = -(rounded % unit);
+            for (int i = fractionDigits - 1; i > 0 && fraction < POWERS_OF_TEN[i]; i--) {
+                builder.append('0');
+            }
+            builder.append(fraction);
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches whether sysfs/procfs nodes exist and are readable or writable.
+ *
+ * Node permissions rarely change while the app is running, so a node is probed once and
+ * a positive result is reused until an access to the node fails. Negative results expire
+ * after a while, as a node may still show up later, e.g. once its module is loaded.
+ * The cache lives in memory only, so every new process starts without results.
+ */
+public class NodeCapabilityCache {
+
+    private static final int READABLE = 1 << 0;
+    private static final int WRITABLE = 1 << 1;
+
+    // How long a missing capability is trusted before the node is probed again
+    private static final long NEGATIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final ConcurrentHashMap<String, Entry> sCapabilities =
+            new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        final int capabilities;
+        final long probeTime;
+
+        Entry(int capabilities, long probeTime) {
+            this.capabilities = capabilities;
+            this.probeTime = probeTime;
+        }
+    }
+
+    /**
+     * Checks whether the given node is readable, probing it only on first use.
+     *
+     * @return true if readable, false if not
+     */
+    public static boolean isReadable(String node) {
+        return hasCapability(node, READABLE);
+    }
+
+    /**
+     * Checks whether the given node is writable, probing it only on first use.
+     *
+     * @return true if writable, false if not
+     */
+    public static boolean isWritable(String node) {
+        return hasCapability(node, WRITABLE);
+    }
+
+    /**
+     * Forgets the cached result for the given node, so the next check probes it again.
+     */
+    public static void invalidate(String node) {
+        sCapabilities.remove(node);
+    }
+
+    /**
+     * Forgets all cached results.
+     */
+    public static void invalidateAll() {
+        sCapabilities.clear();
+    }
+
+    private static boolean hasCapability(String node, int capability) {
+        if (node == null) {
+            return false;
+        }
+        Entry entry = sCapabilities.get(node);
+        if (entry != null && ((entry.capabilities & capability) != 0
+                || System.nanoTime() - entry.probeTime < NEGATIVE_TTL_NANOS)) {
+            return (entry.capabilities & capability) != 0;
+        }
+        entry = new Entry(probe(node), System.nanoTime());
+        sCapabilities.put(node, entry);
+        return (entry.capabilities & capability) != 0;
+    }
+
+    private static int probe(String node) {
+        final File file = new File(SysfsRoot.resolve(node));
+        int capabilities = 0;
+        if (file.exists()) {
+            if (file.canRead()) {
+                capabilities |= READABLE;
+            }
+            if (file.canWrite()) {
+                capabilities |= WRITABLE;
+            }
+        }
+        return capabilities;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read latency of a sysfs/procfs node: the last value, an exponentially weighted moving
+ * average and the maximum.
+ *
+ * There is one entry per node path for the whole process, so the figures survive the
+ * {@link SysfsNode} handles that record them. Recording takes a lock but does not
+ * allocate.
+ */
+public class NodeLatency {
+
+    // Weight of a new sample in the average, 1/8
+    private static final int EWMA_SHIFT = 3;
+
+    private static final ConcurrentHashMap<String, NodeLatency> sTable =
+            new ConcurrentHashMap<>();
+
+    private final String mName;
+    private long mCount;
+    private long mLastNanos;
+    private long mAverageNanos;
+    private long mMaxNanos;
+
+    private NodeLatency(String name) {
+        mName = name;
+    }
+
+    /**
+     * Returns the entry for the given node path or name, creating it on first use.
+     */
+    public static NodeLatency get(String name) {
+        NodeLatency latency = sTable.get(name);
+        if (latency == null) {
+            latency = sTable.computeIfAbsent(name, NodeLatency::new);
+        }
+        return latency;
+    }
+
+    /**
+     * Returns all entries that recorded at least one read, slowest average first.
+     */
+    public static List<NodeLatency> getAll() {
+        List<NodeLatency> entries = new ArrayList<>();
+        for (NodeLatency latency : sTable.values()) {
+            if (latency.getCount() > 0) {
+                entries.add(latency);
+            }
+        }
+        entries.sort((a, b) -> Long.compare(b.getAverageNanos(), a.getAverageNanos()));
+        return entries;
+    }
+
+    /**
+     * Clears the figures of all entries, e.g. between host tests. Entries are cleared in
+     * place, so handles holding one keep recording into it.
+     */
+    public static void resetAll() {
+        for (NodeLatency latency : sTable.values()) {
+            latency.reset();
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Records the duration of one read.
+     */
+    public synchronized void record(long nanos) {
+        if (mCount == 0) {
+            mAverageNanos = nanos;
+        } else {
+            mAverageNanos += (nanos - mAverageNanos) >> EWMA_SHIFT;
+        }
+        mLastNanos = nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        mCount++;
+    }
+
+    /**
+     * Returns whether reads take longer than the given budget on average.
+     */
+    public synchronized boolean isOverBudget(long budgetNanos) {
+        return mCount > 0 && mAverageNanos > budgetNanos;
+    }
+
+    private synchronized void reset() {
+        mCount = 0;
+        mLastNanos = 0;
+        mAverageNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getLastNanos() {
+        return mLastNanos;
+    }
+
+    public synchronized long getAverageNanos() {
+        return mAverageNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+}
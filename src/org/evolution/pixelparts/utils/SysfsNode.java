@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent handle to a single sysfs/procfs attribute.
+ *
+ * The file descriptor is opened once and kept open; every {@link #read()} re-reads the
+ * attribute from offset 0 with a positional read (pread) into a reused buffer, so polling
+ * a node does not open, close or allocate anything. The duration of every successful read
+ * is recorded in the {@link NodeLatency} entry of the path.
+ *
+ * Instances are not thread-safe.
+ */
+public class SysfsNode implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 512;
+
+    private final String mPath;
+    private final byte[] mBuffer;
+    private final ByteBuffer mDirectBuffer;
+    private final NodeLatency mLatency;
+    private FileChannel mChannel;
+    private int mLength = -1;
+
+    public SysfsNode(String path) {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    public SysfsNode(String path, int bufferSize) {
+        mPath = path;
+        mBuffer = new byte[bufferSize];
+        mDirectBuffer = ByteBuffer.allocateDirect(bufferSize);
+        mLatency = NodeLatency.get(path);
+    }
+
+    /**
+     * Returns the path of the attribute this handle points to.
+     */
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Returns the read latency of the attribute.
+     */
+    public NodeLatency getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * Re-reads the attribute from offset 0 into the internal buffer.
+     *
+     * @return the number of bytes read, or -1 on failure
+     */
+    public int read() {
+        if (mChannel == null && !open()) {
+            mLength = -1;
+            return -1;
+        }
+
+        mDirectBuffer.clear();
+        long start = System.nanoTime();
+        try {
+            long position = 0;
+            while (mDirectBuffer.hasRemaining()) {
+                int count = mChannel.read(mDirectBuffer, position);
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+            }
+        } catch (IOException e) {
+            // Drop the descriptor, the next read will probe and reopen it
+            close();
+            NodeCapabilityCache.invalidate(mPath);
+            mLength = -1;
+            return -1;
+        }
+
+        mLatency.record(System.nanoTime() - start);
+
+        mDirectBuffer.flip();
+        mLength = mDirectBuffer.remaining();
+        mDirectBuffer.get(mBuffer, 0, mLength);
+        return mLength;
+    }
+
+    /**
+     * Returns the buffer holding the contents of the last successful {@link #read()}.
+     * Only the first {@link #length()} bytes are valid.
+     */
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Returns the number of valid bytes in the buffer, or -1 if the last read failed.
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * Returns the length of the first line of the last read, without the line terminator.
+     */
+    public int lineLength() {
+        if (mLength < 0) {
+            return -1;
+        }
+        int end = 0;
+        while (end < mLength && mBuffer[end] != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Reads the attribute and returns its first line.
+     * Only the returned String is allocated.
+     *
+     * @return the read line contents, or null on failure
+     */
+    public String readLine() {
+        if (read() < 0) {
+            return null;
+        }
+        return new String(mBuffer, 0, lineLength(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the attribute and parses it as a decimal number without allocating.
+     *
+     * @return the parsed value, or defValue on failure
+     */
+    public long readLong(long defValue) {
+        if (read() < 0) {
+            return defValue;
+        }
+        return SysfsParser.parseLong(mBuffer, 0, lineLength(), defValue);
+    }
+
+    /**
+     * Reads the attribute and parses it as a decimal int without allocating.
+     *
+     * @return the parsed value, or defValue on failure
+     */
+    public int readInt(int defValue) {
+        if (read() < 0) {
+            return defValue;
+        }
+        return SysfsParser.parseInt(mBuffer, 0, lineLength(), defValue);
+    }
+
+    private boolean open() {
+        // Don't keep trying to open nodes that are known to be inaccessible
+        if (!NodeCapabilityCache.isReadable(mPath)) {
+            return false;
+        }
+        try {
+            mChannel = FileChannel.open(Paths.get(SysfsRoot.resolve(mPath)), StandardOpenOption.READ);
+            return true;
+        } catch (IOException | SecurityException e) {
+            mChannel = null;
+            NodeCapabilityCache.invalidate(mPath);
+            return false;
+        }
+    }
+
+    /**
+     * Closes the underlying file descriptor. The handle may still be used afterwards,
+     * the next read will reopen the attribute.
+     */
+    @Override
+    public void close() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // Ignored, not much we can do anyway
+            }
+            mChannel = null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+public class SysfsParser {
+
+    /**
+     * Parses a decimal integer straight from raw sysfs bytes, without going through a String.
+     * Leading and trailing whitespace (including the trailing newline) and an optional sign
+     * are accepted.
+     *
+     * @param buffer   the bytes to parse
+     * @param start    the index of the first byte
+     * @param end      the index after the last byte
+     * @param defValue the value to return if the bytes are not a valid number
+     * @return the parsed value, or defValue on failure or overflow
+     */
+    public static long parseLong(byte[] buffer, int start, int end, long defValue) {
+        while (start < end && isWhitespace(buffer[start])) {
+            start++;
+        }
+        while (end > start && isWhitespace(buffer[end - 1])) {
+            end--;
+        }
+        if (start >= end) {
+            return defValue;
+        }
+
+        boolean negative = false;
+        if (buffer[start] == '-' || buffer[start] == '+') {
+            negative = buffer[start] == '-';
+            start++;
+            if (start == end) {
+                return defValue;
+            }
+        }
+
+        // Accumulate negatively so Long.MIN_VALUE can be represented
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9 || result < (Long.MIN_VALUE + digit) / 10) {
+                return defValue;
+            }
+            result = result * 10 - digit;
+        }
+
+        if (!negative) {
+            if (result == Long.MIN_VALUE) {
+                return defValue;
+            }
+            result = -result;
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #parseLong(byte[], int, int, long)}, limited to the int range.
+     */
+    public static int parseInt(byte[] buffer, int start, int end, int defValue) {
+        long value = parseLong(buffer, start, end, Long.MIN_VALUE);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return defValue;
+        }
+        return (int) value;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == 0;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+/**
+ * Root directory the absolute Constants.NODE_* paths are resolved against.
+ *
+ * On devices the root is empty and node paths are used as they are. Host-side tools can
+ * point the I/O layer at a fake sysfs tree by setting the pixelparts.sysfs.root system
+ * property or calling {@link #setRoot(String)}.
+ */
+public class SysfsRoot {
+
+    public static final String PROPERTY_ROOT = "pixelparts.sysfs.root";
+
+    private static volatile String sRoot = normalize(System.getProperty(PROPERTY_ROOT, ""));
+
+    /**
+     * Sets the root directory node paths are resolved against, empty for the real one.
+     */
+    public static void setRoot(String root) {
+        sRoot = normalize(root);
+        NodeCapabilityCache.invalidateAll();
+    }
+
+    /**
+     * Returns the root directory node paths are resolved against, empty for the real one.
+     */
+    public static String getRoot() {
+        return sRoot;
+    }
+
+    /**
+     * Resolves the given absolute node path against the configured root.
+     * Returns the path itself when no root is configured.
+     */
+    public static String resolve(String node) {
+        final String root = sRoot;
+        if (root.isEmpty() || node == null) {
+            return node;
+        }
+        return root + node;
+    }
+
+    private static String normalize(String root) {
+        if (root == null) {
+            return "";
+        }
+        while (root.endsWith("/")) {
+            root = root.substring(0, root.length() - 1);
+        }
+        return root;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Write-behind, write-coalescing writer for sysfs/procfs attributes.
+ *
+ * Writes are queued and performed on a dedicated writer thread. While a write to a node is
+ * still queued, newer values replace it (latest value wins). The last value successfully
+ * written to each node is remembered, and writes of that same value are dropped.
+ */
+public class SysfsWriter {
+
+    /**
+     * Receives the outcome of a write. Called on the writer thread, or on the calling
+     * thread when the write was dropped as redundant.
+     */
+    public interface Callback {
+        void onWriteComplete(String node, String value, boolean success);
+    }
+
+    private static SysfsWriter sInstance;
+
+    private final Object mLock = new Object();
+
+    // Guarded by mLock
+    private final Map<String, String> mLastWritten = new HashMap<>();
+    private final LinkedHashMap<String, PendingWrite> mPending = new LinkedHashMap<>();
+    private Thread mThread;
+
+    // Only touched by the writer thread
+    private final Map<String, FileChannel> mChannels = new HashMap<>();
+
+    private static class PendingWrite {
+        String value;
+        Callback callback;
+
+        PendingWrite(String value, Callback callback) {
+            this.value = value;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Returns the process-wide writer instance.
+     */
+    public static synchronized SysfsWriter getInstance() {
+        if (sInstance == null) {
+            sInstance = new SysfsWriter();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues a write of the given value to the given node.
+     */
+    public void write(String node, String value) {
+        write(node, value, null);
+    }
+
+    /**
+     * Queues a write of the given value to the given node.
+     * If a write to the node is already queued its value and callback are replaced.
+     *
+     * @param node     the node to write to
+     * @param value    the value to write
+     * @param callback notified once the write was performed or dropped, may be null
+     */
+    public void write(String node, String value, Callback callback) {
+        if (node == null || value == null) {
+            return;
+        }
+
+        synchronized (mLock) {
+            PendingWrite pending = mPending.get(node);
+            if (pending != null) {
+                pending.value = value;
+                pending.callback = callback;
+                return;
+            }
+            if (!value.equals(mLastWritten.get(node))) {
+                mPending.put(node, new PendingWrite(value, callback));
+                startThreadLocked();
+                mLock.notify();
+                return;
+            }
+        }
+
+        // Redundant write, the node already holds this value
+        if (callback != null) {
+            callback.onWriteComplete(node, value, true);
+        }
+    }
+
+    /**
+     * Forgets the last value written to the given node, so the next write is performed
+     * even if it repeats that value. Use this when the node may have been changed by
+     * someone else.
+     */
+    public void invalidate(String node) {
+        synchronized (mLock) {
+            mLastWritten.remove(node);
+        }
+    }
+
+    private void startThreadLocked() {
+        if (mThread == null) {
+            mThread = new Thread(this::processWrites, "SysfsWriter");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    private void processWrites() {
+        while (true) {
+            String node;
+            PendingWrite pending;
+            boolean redundant;
+            synchronized (mLock) {
+                while (mPending.isEmpty()) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // Keep serving writes, there is no way to stop the writer
+                    }
+                }
+                Iterator<Map.Entry<String, PendingWrite>> it = mPending.entrySet().iterator();
+                Map.Entry<String, PendingWrite> entry = it.next();
+                it.remove();
+                node = entry.getKey();
+                pending = entry.getValue();
+                // A newer value may have reverted the node to what it already holds
+                redundant = pending.value.equals(mLastWritten.get(node));
+            }
+
+            boolean success = redundant || writeNode(node, pending.value);
+
+            synchronized (mLock) {
+                if (success) {
+                    mLastWritten.put(node, pending.value);
+                } else {
+                    mLastWritten.remove(node);
+                }
+            }
+
+            if (pending.callback != null) {
+                pending.callback.onWriteComplete(node, pending.value, success);
+            }
+        }
+    }
+
+    private boolean writeNode(String node, String value) {
+        FileChannel channel = mChannels.get(node);
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(Paths.get(SysfsRoot.resolve(node)), StandardOpenOption.WRITE);
+                mChannels.put(node, channel);
+            }
+            channel.write(ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII)), 0);
+            return true;
+        } catch (IOException | SecurityException e) {
+            // Drop the descriptor, the next write will try to reopen it
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Ignored, not much we can do anyway
+                }
+            }
+            mChannels.remove(node);
+            NodeCapabilityCache.invalidate(node);
+            return false;
+        }
+    }
+}
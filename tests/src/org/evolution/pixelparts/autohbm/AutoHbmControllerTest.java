@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.autohbm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AutoHbmControllerTest {
+
+    private static final long SECOND = 1000000000L;
+
+    // 1000 lux threshold, 2 s to enable, 5 s before disabling, exit at 800 lux, no filter
+    private static final AutoHbmConfig CONFIG =
+            new AutoHbmConfig(1000, 2, 5, 20, LuxFilter.MODE_NONE, 1, 1000);
+
+    private static final float BRIGHT = 2000;
+    private static final float BETWEEN_THRESHOLDS = 900;
+    private static final float DARK = 100;
+
+    private AutoHbmController mController;
+    private boolean mHbmEnabled;
+
+    @Before
+    public void setUp() {
+        mController = new AutoHbmController(CONFIG);
+        mHbmEnabled = false;
+    }
+
+    private int sample(double seconds, float lux) {
+        return sample(seconds, lux, false);
+    }
+
+    // Feeds a sample and applies the returned action like the service does
+    private int sample(double seconds, float lux, boolean keyguardShowing) {
+        int action = mController.onLightSample((long) (seconds * SECOND), lux, mHbmEnabled,
+                keyguardShowing);
+        if (action == AutoHbmController.ACTION_ENABLE) {
+            mHbmEnabled = true;
+        } else if (action == AutoHbmController.ACTION_DISABLE) {
+            mHbmEnabled = false;
+        }
+        return action;
+    }
+
+    @Test
+    public void enablesOnceBrightForTheEnableTime() {
+        assertEquals(AutoHbmController.ACTION_NONE, sample(10, BRIGHT));
+        assertEquals(AutoHbmController.ACTION_NONE, sample(11, BRIGHT));
+        assertEquals(AutoHbmController.ACTION_NONE, sample(11.9, BRIGHT));
+        assertEquals(AutoHbmController.ACTION_ENABLE, sample(12, BRIGHT));
+        assertEquals(AutoHbmController.ACTION_NONE, sample(13, BRIGHT));
+    }
+
+    @Test
+    public void dipBelowTheExitThresholdRestartsTheEnableTime() {
+        sample(10, BRIGHT);
+        sample(11, DARK);
+        assertEquals(AutoHbmController.ACTION_NONE, sample(12, BRIGHT));
+        assertEquals(AutoHbmController.ACTION_NONE, sample(13, BRIGHT));
+        assertEquals(AutoHbmController.ACTION_ENABLE, sample(14, BRIGHT));
+    }
+
+    @Test
+    public void disablesOnlyAfterTheDisableTime() {
+        sample(10, BRIGHT);
+        assertEquals(AutoHbmController.ACTION_ENABLE, sample(12, BRIGHT));
+
+        assertEquals(AutoHbmController.ACTION_NONE, sample(13, DARK));
+        assertEquals(AutoHbmController.ACTION_NONE, sample(16.9, DARK));
+        assertEquals(AutoHbmController.ACTION_DISABLE, sample(17, DARK));
+        assertFalse(mHbmEnabled);
+        assertEquals(AutoHbmController.ACTION_NONE, sample(18, DARK));
+    }
+
+    @Test
+    public void lightBetweenTheThresholdsKeepsTheCurrentState() {
+        sample(10, BRIGHT);
+        assertEquals(AutoHbmController.ACTION_ENABLE, sample(12, BRIGHT));
+
+        // Above the exit threshold HBM stays on however long it takes
+        for (int i = 0; i < 60; i++) {
+            assertEquals(AutoHbmController.ACTION_NONE, sample(13 + i, BETWEEN_THRESHOLDS));
+        }
+        assertEquals(AutoHbmController.ACTION_DISABLE, sample(80, DARK));
+
+        // And below the threshold it is not turned on again
+        for (int i = 0; i < 60; i++) {
+            assertEquals(AutoHbmController.ACTION_NONE, sample(81 + i, BETWEEN_THRESHOLDS));
+        }
+    }
+
+    @Test
+    public void keyguardHoldsBackEnabling() {
+        sample(10, BRIGHT, true);
+        assertEquals(AutoHbmController.ACTION_NONE, sample(12, BRIGHT, true));
+        assertEquals(AutoHbmController.ACTION_NONE, sample(20, BRIGHT, true));
+        // Unlocking enables right away, the light has been bright for long enough
+        assertEquals(AutoHbmController.ACTION_ENABLE, sample(21, BRIGHT, false));
+    }
+
+    @Test
+    public void neverDisablesHbmItDidNotEnable() {
+        // Turned on by someone else, the service reports it as not enabled
+        for (int i = 0; i < 20; i++) {
+            assertEquals(AutoHbmController.ACTION_NONE, sample(10 + i, DARK));
+        }
+    }
+
+    @Test
+    public void resetForgetsTheLightHistory() {
+        sample(10, BRIGHT);
+        mController.reset();
+        assertEquals(AutoHbmController.ACTION_NONE, sample(12, BRIGHT));
+        assertEquals(AutoHbmController.ACTION_ENABLE, sample(14, BRIGHT));
+    }
+
+    @Test
+    public void slowsDownOnlyAfterStayingFarBelowTheThreshold() {
+        assertTrue(mController.isFastRate());
+        sample(0, DARK);
+        assertTrue(mController.isFastRate());
+        sample(9, DARK);
+        assertTrue(mController.isFastRate());
+        sample(11, DARK);
+        assertFalse(mController.isFastRate());
+
+        // Half the threshold is near enough to speed up again
+        sample(12, 500);
+        assertTrue(mController.isFastRate());
+    }
+}
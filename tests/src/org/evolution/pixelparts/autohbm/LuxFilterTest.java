@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.autohbm;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LuxFilterTest {
+
+    private static final long SECOND = 1000000000L;
+    private static final float DELTA = 0.01f;
+
+    private final LuxFilter mFilter = new LuxFilter();
+
+    @Test
+    public void noneLetsSamplesThrough() {
+        mFilter.configure(LuxFilter.MODE_NONE, 5, SECOND);
+        assertEquals(10, mFilter.filter(0, 10), 0);
+        assertEquals(5000, mFilter.filter(1, 5000), 0);
+    }
+
+    @Test
+    public void medianDropsShortSpikes() {
+        mFilter.configure(LuxFilter.MODE_MEDIAN, 3, SECOND);
+        assertEquals(10, mFilter.filter(0, 10), 0);
+        // Averages the middle two while the window fills
+        assertEquals(505, mFilter.filter(1, 1000), 0);
+        assertEquals(12, mFilter.filter(2, 12), 0);
+        assertEquals(12, mFilter.filter(3, 11), 0);
+        assertEquals(11, mFilter.filter(4, 9), 0);
+    }
+
+    @Test
+    public void medianEvictsTheOldestSample() {
+        mFilter.configure(LuxFilter.MODE_MEDIAN, 3, SECOND);
+        mFilter.filter(0, 5);
+        mFilter.filter(1, 5);
+        assertEquals(5, mFilter.filter(2, 5), 0);
+        assertEquals(5, mFilter.filter(3, 1), 0);
+        assertEquals(1, mFilter.filter(4, 1), 0);
+        assertEquals(1, mFilter.filter(5, 7), 0);
+        assertEquals(7, mFilter.filter(6, 8), 0);
+    }
+
+    @Test
+    public void medianWindowIsClamped() {
+        mFilter.configure(LuxFilter.MODE_MEDIAN, 100, SECOND);
+        for (int i = 0; i < LuxFilter.MAX_MEDIAN_WINDOW; i++) {
+            mFilter.filter(i, 1000);
+        }
+        // A window of 100 would still be dominated by the bright samples
+        for (int i = 0; i < LuxFilter.MAX_MEDIAN_WINDOW / 2; i++) {
+            assertEquals(1000, mFilter.filter(100 + i, 0), 0);
+        }
+        assertEquals(0, mFilter.filter(200, 0), 0);
+    }
+
+    @Test
+    public void averageFollowsWithItsTimeConstant() {
+        mFilter.configure(LuxFilter.MODE_EWMA, 1, SECOND);
+        assertEquals(0, mFilter.filter(0, 0), 0);
+        assertEquals(100 * (1 - Math.exp(-1)), mFilter.filter(SECOND, 100), DELTA);
+        // No time passed, nothing changes
+        assertEquals(100 * (1 - Math.exp(-1)), mFilter.filter(SECOND, 5000), DELTA);
+    }
+
+    @Test
+    public void averageDoesNotDependOnTheSampleRate() {
+        LuxFilter slow = new LuxFilter();
+        slow.configure(LuxFilter.MODE_EWMA, 1, SECOND);
+        mFilter.configure(LuxFilter.MODE_EWMA, 1, SECOND);
+
+        slow.filter(0, 0);
+        mFilter.filter(0, 0);
+        float expected = slow.filter(2 * SECOND, 100);
+        float actual = 0;
+        for (int i = 1; i <= 20; i++) {
+            actual = mFilter.filter(i * SECOND / 10, 100);
+        }
+        assertEquals(expected, actual, DELTA);
+    }
+
+    @Test
+    public void configureDropsTheHistory() {
+        mFilter.configure(LuxFilter.MODE_EWMA, 1, SECOND);
+        mFilter.filter(0, 0);
+        mFilter.configure(LuxFilter.MODE_EWMA, 1, SECOND);
+        assertEquals(300, mFilter.filter(SECOND, 300), 0);
+    }
+
+    @Test
+    public void parsesModeNames() {
+        assertEquals(LuxFilter.MODE_NONE, LuxFilter.parseMode("none", LuxFilter.MODE_EWMA));
+        assertEquals(LuxFilter.MODE_MEDIAN, LuxFilter.parseMode("median", LuxFilter.MODE_NONE));
+        assertEquals(LuxFilter.MODE_EWMA, LuxFilter.parseMode("ewma", LuxFilter.MODE_NONE));
+        assertEquals(LuxFilter.MODE_MEDIAN, LuxFilter.parseMode("bogus", LuxFilter.MODE_MEDIAN));
+        assertEquals(LuxFilter.MODE_MEDIAN, LuxFilter.parseMode(null, LuxFilter.MODE_MEDIAN));
+    }
+}
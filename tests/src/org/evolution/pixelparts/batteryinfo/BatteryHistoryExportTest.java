@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatteryHistoryExportTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("battery_history", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static BatterySnapshot snapshot(int current, int voltage, int temperature,
+            int capacity, int status) {
+        BatterySnapshot snapshot = new BatterySnapshot();
+        snapshot.currentNow = current;
+        snapshot.voltageNow = voltage;
+        snapshot.temperature = temperature;
+        snapshot.capacity = capacity;
+        snapshot.status = status;
+        snapshot.valid = BatteryHistoryStore.STORED_FIELDS;
+        return snapshot;
+    }
+
+    // Flattens a record into the values the export carries
+    private static long[] flatten(long timestamp, BatterySnapshot record) {
+        return new long[] {
+                timestamp, record.currentNow, record.voltageNow, record.temperature,
+                record.capacity, record.status, record.valid
+        };
+    }
+
+    private static byte[] export(BatteryHistoryStore store) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(store.size(), BatteryHistoryExport.write(store, out));
+        return out.toByteArray();
+    }
+
+    private static List<long[]> read(byte[] export) throws IOException {
+        List<long[]> records = new ArrayList<>();
+        int count = BatteryHistoryExport.read(new ByteArrayInputStream(export),
+                (timestamp, record) -> records.add(flatten(timestamp, record)));
+        assertEquals(records.size(), count);
+        return records;
+    }
+
+    private static void assertRoundTrip(BatteryHistoryStore store) throws IOException {
+        List<long[]> records = read(export(store));
+        assertEquals(store.size(), records.size());
+        BatterySnapshot record = new BatterySnapshot();
+        for (int i = 0; i < records.size(); i++) {
+            long timestamp = store.read(i, record);
+            long[] expected = flatten(timestamp, record);
+            if (!Arrays.equals(expected, records.get(i))) {
+                throw new AssertionError("Record " + i + " differs: expected "
+                        + Arrays.toString(expected) + " but was "
+                        + Arrays.toString(records.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsEmptyHistory() throws IOException {
+        try (BatteryHistoryStore store = BatteryHistoryStore.open(mFile, 16)) {
+            assertEquals(0, read(export(store)).size());
+        }
+    }
+
+    @Test
+    public void roundTripsAcrossBlocksAndRingWrapAround() throws IOException {
+        int capacity = BatteryHistoryExport.BLOCK_SIZE * 2 + 3;
+        try (BatteryHistoryStore store = BatteryHistoryStore.open(mFile, capacity)) {
+            long timestamp = 1700000000000L;
+            for (int i = 0; i < capacity + 100; i++) {
+                timestamp += 1000 + i % 7;
+                store.append(timestamp, snapshot(-400000 - i * 13, 4200000 - i, 290 + i % 5,
+                        i % 101, BatterySnapshot.STATUS_DISCHARGING));
+            }
+            assertEquals(capacity, store.size());
+            assertRoundTrip(store);
+        }
+    }
+
+    @Test
+    public void roundTripsExtremeDeltas() throws IOException {
+        try (BatteryHistoryStore store = BatteryHistoryStore.open(mFile, 16)) {
+            // Deltas that span the whole int range and wrap the long one
+            store.append(Long.MAX_VALUE, snapshot(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                    Short.MIN_VALUE, Byte.MAX_VALUE, Byte.MIN_VALUE));
+            store.append(Long.MIN_VALUE, snapshot(Integer.MAX_VALUE, Integer.MIN_VALUE,
+                    Short.MAX_VALUE, Byte.MIN_VALUE, Byte.MAX_VALUE));
+            store.append(0, snapshot(0, 0, 0, 0, 0));
+            store.append(-1, snapshot(-1, 1, -1, -1, 1));
+            store.append(Long.MAX_VALUE, snapshot(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                    Short.MIN_VALUE, Byte.MAX_VALUE, Byte.MIN_VALUE));
+            // Varint length boundaries
+            store.append(127, snapshot(63, -64, 64, -65, 0));
+            store.append(127 + 128, snapshot(63 + 8192, -64 - 8192, 0, 0, 0));
+            assertRoundTrip(store);
+        }
+    }
+
+    @Test
+    public void slowlyChangingValuesTakeAboutOneBytePerColumn() throws IOException {
+        int records = 1000;
+        try (BatteryHistoryStore store = BatteryHistoryStore.open(mFile, records)) {
+            for (int i = 0; i < records; i++) {
+                // 1 s apart would need two bytes, the timestamp column is in milliseconds
+                store.append(i * 50L, snapshot(-400000 + i % 3, 4200000, 300, 80,
+                        BatterySnapshot.STATUS_DISCHARGING));
+            }
+            // Header, block count and terminating block, then the first record in full
+            // and one byte per column for every other record
+            assertEquals(5 + 2 + 1 + 15 + 7 * (records - 1), export(store).length);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        read(new byte[] { 'P', 'K', 3, 4, 0 });
+    }
+
+    @Test(expected = EOFException.class)
+    public void rejectsTruncatedExports() throws IOException {
+        try (BatteryHistoryStore store = BatteryHistoryStore.open(mFile, 16)) {
+            store.append(1000, snapshot(-1, 2, 3, 4, 1));
+            byte[] export = export(store);
+            read(Arrays.copyOf(export, export.length - 3));
+        }
+    }
+}
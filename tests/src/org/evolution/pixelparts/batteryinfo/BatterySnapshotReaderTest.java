@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.evolution.pixelparts.Constants;
+import org.evolution.pixelparts.host.FakeSysfs;
+import org.evolution.pixelparts.utils.NodeLatency;
+import org.evolution.pixelparts.utils.SysfsRoot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Counts the node reads of {@link BatterySnapshotReader} against a fake sysfs tree once
+ * the battery uevent is demoted for being slow.
+ */
+public class BatterySnapshotReaderTest {
+
+    // Well over the uevent budget, keeps it demoted across the re-probes of a test
+    private static final long SLOW_READ_NANOS = 50000000;
+    private static final int SLOW_READS = 8;
+
+    private static final int SAMPLES = 8;
+
+    // Nodes the uevent covers, never read on their own while it reports them
+    private static final String[] UEVENT_NODES = {
+            Constants.NODE_STATUS,
+            Constants.NODE_TEMPERATURE,
+            Constants.NODE_CAPACITY,
+            Constants.NODE_CAPACITY_LEVEL,
+            Constants.NODE_CURRENT,
+            Constants.NODE_VOLTAGE,
+            Constants.NODE_TECHNOLOGY,
+            Constants.NODE_HEALTH,
+            Constants.NODE_CYCLE_COUNT
+    };
+
+    private Path mRoot;
+    private FakeSysfs mSysfs;
+    private BatterySnapshotReader mReader;
+    private final BatterySnapshot mSnapshot = new BatterySnapshot();
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = Files.createTempDirectory("pixelparts-sysfs");
+        mSysfs = new FakeSysfs(mRoot).create();
+        // Latencies are process-wide, start from none whatever ran before
+        NodeLatency.resetAll();
+        mReader = new BatterySnapshotReader();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mReader.close();
+        NodeLatency.resetAll();
+        SysfsRoot.setRoot("");
+        try (Stream<Path> paths = Files.walk(mRoot)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void demotedUeventReusesItsFieldsInsteadOfReadingNodes() throws IOException {
+        mReader.read(mSnapshot);
+        demoteUevent();
+
+        long ueventReads = getReads(Constants.NODE_BATTERY_UEVENT);
+        long[] nodeReads = getReads(UEVENT_NODES);
+        mSysfs.set(Constants.NODE_CURRENT, "-500000");
+        int[] currents = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            mReader.read(mSnapshot);
+            currents[i] = mSnapshot.currentNow;
+        }
+
+        // Only the re-probes every DEMOTED_READ_INTERVAL samples read anything
+        assertEquals(2, getReads(Constants.NODE_BATTERY_UEVENT) - ueventReads);
+        for (int i = 0; i < UEVENT_NODES.length; i++) {
+            assertEquals(UEVENT_NODES[i], nodeReads[i], getReads(UEVENT_NODES[i]));
+        }
+
+        // Between re-probes the snapshot repeats the last uevent as a whole
+        assertEquals(-412000, currents[0]);
+        assertEquals(-412000, currents[2]);
+        assertEquals(-500000, currents[3]);
+        assertEquals(-500000, currents[6]);
+    }
+
+    @Test
+    public void demotedUeventStillReadsFieldsItNeverReports() throws IOException {
+        writeUeventWithout("POWER_SUPPLY_TEMP");
+        mReader.read(mSnapshot);
+        demoteUevent();
+
+        long temperatureReads = getReads(Constants.NODE_TEMPERATURE);
+        long currentReads = getReads(Constants.NODE_CURRENT);
+        for (int i = 0; i < SAMPLES; i++) {
+            mReader.read(mSnapshot);
+            assertEquals(291, mSnapshot.temperature);
+        }
+
+        assertEquals(SAMPLES, getReads(Constants.NODE_TEMPERATURE) - temperatureReads);
+        assertEquals(currentReads, getReads(Constants.NODE_CURRENT));
+    }
+
+    private static void demoteUevent() {
+        NodeLatency latency = NodeLatency.get(Constants.NODE_BATTERY_UEVENT);
+        for (int i = 0; i < SLOW_READS; i++) {
+            latency.record(SLOW_READ_NANOS);
+        }
+    }
+
+    private void writeUeventWithout(String key) throws IOException {
+        Path uevent = Paths.get(SysfsRoot.resolve(Constants.NODE_BATTERY_UEVENT));
+        StringBuilder contents = new StringBuilder();
+        for (String line : Files.readAllLines(uevent, StandardCharsets.US_ASCII)) {
+            if (!line.startsWith(key + "=")) {
+                contents.append(line).append('\n');
+            }
+        }
+        Files.write(uevent, contents.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long getReads(String node) {
+        return NodeLatency.get(node).getCount();
+    }
+
+    private static long[] getReads(String[] nodes) {
+        long[] reads = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            reads[i] = getReads(nodes[i]);
+        }
+        return reads;
+    }
+}
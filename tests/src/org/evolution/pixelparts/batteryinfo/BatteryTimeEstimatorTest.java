@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Feeds {@link BatteryTimeEstimator} with a simulated charge at one sample per minute:
+ * 3 A of constant current with the voltage rising 20 mV per minute, until the charger
+ * holds the voltage and the current decays with a 20 minute time constant.
+ */
+public class BatteryTimeEstimatorTest {
+
+    private static final long MINUTE = 60000;
+
+    private static final double CC_CURRENT = 3000000;
+    private static final double CC_VOLTAGE_STEP = 20000;
+    private static final double CV_CURRENT_TAU_MINUTES = 20;
+    // Capacity gained per minute at the constant current
+    private static final double CC_CAPACITY_STEP = 1;
+
+    private final BatteryTimeEstimator mEstimator = new BatteryTimeEstimator();
+    private final BatterySnapshot mSnapshot = new BatterySnapshot();
+    private final BatterySnapshot mOut = new BatterySnapshot();
+
+    private int mMinute;
+    private double mCapacity;
+    private double mCurrent = CC_CURRENT;
+    private double mVoltage = 3800000;
+
+    private void add(int status) {
+        mSnapshot.reset();
+        mSnapshot.status = status;
+        mSnapshot.capacity = (int) mCapacity;
+        mSnapshot.currentNow = (int) mCurrent;
+        mSnapshot.voltageNow = (int) mVoltage;
+        mSnapshot.valid = BatterySnapshot.FIELD_STATUS | BatterySnapshot.FIELD_CAPACITY
+                | BatterySnapshot.FIELD_CURRENT | BatterySnapshot.FIELD_VOLTAGE;
+        mEstimator.add(mMinute * MINUTE, mSnapshot);
+        mEstimator.fill(mOut);
+        mMinute++;
+    }
+
+    // Charges at constant current up to the given capacity
+    private void chargeConstantCurrent(double capacity) {
+        while (mCapacity < capacity) {
+            add(BatterySnapshot.STATUS_CHARGING);
+            mCapacity += CC_CAPACITY_STEP * mCurrent / CC_CURRENT;
+            mVoltage += CC_VOLTAGE_STEP;
+        }
+    }
+
+    // Charges at constant voltage for the given number of minutes
+    private void chargeConstantVoltage(int minutes) {
+        for (int i = 0; i < minutes; i++) {
+            add(BatterySnapshot.STATUS_CHARGING);
+            mCapacity += CC_CAPACITY_STEP * mCurrent / CC_CURRENT;
+            mCurrent *= Math.exp(-1 / CV_CURRENT_TAU_MINUTES);
+        }
+    }
+
+    private double getMinutesRemaining() {
+        assertTrue(mOut.has(BatterySnapshot.FIELD_TIME_REMAINING));
+        return mOut.timeRemaining / 60.0;
+    }
+
+    @Test
+    public void unknownUntilTheFitHasEnoughSpread() {
+        mCapacity = 20;
+        add(BatterySnapshot.STATUS_CHARGING);
+        assertEquals(BatteryTimeEstimator.TIME_UNKNOWN, mOut.timeRemaining);
+        assertEquals(ChargeSessionIntegrator.DIRECTION_CHARGING, mOut.timeRemainingDirection);
+    }
+
+    @Test
+    public void constantCurrentFollowsTheLinearTrend() {
+        mCapacity = 20;
+        chargeConstantCurrent(60);
+        assertFalse(mOut.constantVoltage);
+        assertEquals(40, getMinutesRemaining(), 1);
+    }
+
+    @Test
+    public void detectsTheSwitchToConstantVoltage() {
+        mCapacity = 20;
+        chargeConstantCurrent(80);
+        assertFalse(mOut.constantVoltage);
+
+        chargeConstantVoltage(3);
+        assertFalse(mOut.constantVoltage);
+        chargeConstantVoltage(7);
+        assertTrue(mOut.constantVoltage);
+
+        // The decaying current stretches the rest well beyond the constant current rate
+        double linearMinutes = (100 - mCapacity) / CC_CAPACITY_STEP;
+        assertTrue(getMinutesRemaining() > linearMinutes * 1.3);
+
+        // Stays in constant voltage for the rest of the session
+        chargeConstantVoltage(30);
+        assertTrue(mOut.constantVoltage);
+    }
+
+    @Test
+    public void throttlingBelowHalfCapacityIsNotConstantVoltage() {
+        mCapacity = 20;
+        chargeConstantCurrent(30);
+        // Thermal throttling: the current drops while the voltage holds
+        for (int i = 0; i < 15; i++) {
+            mCurrent *= 0.95;
+            add(BatterySnapshot.STATUS_CHARGING);
+            mCapacity += CC_CAPACITY_STEP * mCurrent / CC_CURRENT;
+        }
+        assertTrue(mCapacity < 50);
+        assertFalse(mOut.constantVoltage);
+    }
+
+    @Test
+    public void newSessionForgetsConstantVoltage() {
+        mCapacity = 20;
+        chargeConstantCurrent(80);
+        chargeConstantVoltage(10);
+        assertTrue(mOut.constantVoltage);
+
+        add(BatterySnapshot.STATUS_DISCHARGING);
+        assertFalse(mOut.constantVoltage);
+        assertEquals(ChargeSessionIntegrator.DIRECTION_DISCHARGING, mOut.timeRemainingDirection);
+        assertEquals(BatteryTimeEstimator.TIME_UNKNOWN, mOut.timeRemaining);
+    }
+
+    @Test
+    public void estimatesTimeToEmptyWhileDischarging() {
+        mCapacity = 80;
+        mCurrent = -500000;
+        for (int i = 0; i < 60; i++) {
+            add(BatterySnapshot.STATUS_DISCHARGING);
+            mCapacity -= 0.2;
+        }
+        // 1% every 5 minutes
+        assertEquals(mCapacity * 5, getMinutesRemaining(), 10);
+    }
+
+    @Test
+    public void fullIsZero() {
+        mCapacity = 100;
+        add(BatterySnapshot.STATUS_FULL);
+        assertEquals(0, mOut.timeRemaining);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ChargeSessionIntegratorTest {
+
+    private static final long MINUTE = 60000;
+
+    // 1 A at 4 V
+    private static final int CURRENT = 1000000;
+    private static final int VOLTAGE = 4000000;
+
+    private final ChargeSessionIntegrator mIntegrator = new ChargeSessionIntegrator();
+    private final BatterySnapshot mSnapshot = new BatterySnapshot();
+
+    private void add(long timestamp, int status, int current) {
+        mSnapshot.reset();
+        mSnapshot.status = status;
+        mSnapshot.currentNow = current;
+        mSnapshot.voltageNow = VOLTAGE;
+        mSnapshot.valid = BatterySnapshot.FIELD_STATUS | BatterySnapshot.FIELD_CURRENT
+                | BatterySnapshot.FIELD_VOLTAGE;
+        mIntegrator.add(timestamp, mSnapshot);
+    }
+
+    private void charge(long timestamp) {
+        add(timestamp, BatterySnapshot.STATUS_CHARGING, CURRENT);
+    }
+
+    @Test
+    public void integratesOverTheSession() {
+        for (int i = 0; i <= 60; i++) {
+            charge(i * MINUTE);
+        }
+        assertEquals(1000000, mIntegrator.getChargeMicroAmpHours());
+        assertEquals(4000000, mIntegrator.getEnergyMicroWattHours());
+        assertEquals(4000000, mIntegrator.getAveragePowerMicroWatts());
+    }
+
+    @Test
+    public void integratesChangingCurrentWithTrapezoids() {
+        charge(0);
+        add(MINUTE, BatterySnapshot.STATUS_CHARGING, 3 * CURRENT);
+        // Average of 2 A over a minute
+        assertEquals(33333, mIntegrator.getChargeMicroAmpHours());
+        assertEquals(8000000, mIntegrator.getAveragePowerMicroWatts());
+    }
+
+    @Test
+    public void skipsGapsInsteadOfBridgingThem() {
+        charge(0);
+        charge(MINUTE);
+        // Nobody sampled for an hour
+        charge(61 * MINUTE);
+        charge(62 * MINUTE);
+
+        assertEquals(33333, mIntegrator.getChargeMicroAmpHours());
+        assertEquals(133333, mIntegrator.getEnergyMicroWattHours());
+        // The gap does not dilute the average either
+        assertEquals(4000000, mIntegrator.getAveragePowerMicroWatts());
+    }
+
+    @Test
+    public void longestIntegratedIntervalIsMaxGap() {
+        charge(0);
+        charge(ChargeSessionIntegrator.MAX_GAP_MS);
+        long charge = mIntegrator.getChargeMicroAmpHours();
+        assertEquals(25000, charge);
+
+        charge(2 * ChargeSessionIntegrator.MAX_GAP_MS + 1);
+        assertEquals(charge, mIntegrator.getChargeMicroAmpHours());
+    }
+
+    @Test
+    public void ignoresTimeGoingBackwards() {
+        charge(10 * MINUTE);
+        charge(5 * MINUTE);
+        assertEquals(0, mIntegrator.getChargeMicroAmpHours());
+        charge(6 * MINUTE);
+        assertEquals(16666, mIntegrator.getChargeMicroAmpHours());
+    }
+
+    @Test
+    public void startsANewSessionWhenTheDirectionChanges() {
+        charge(0);
+        charge(MINUTE);
+        add(2 * MINUTE, BatterySnapshot.STATUS_DISCHARGING, -CURRENT / 2);
+        assertEquals(ChargeSessionIntegrator.DIRECTION_DISCHARGING, mIntegrator.getDirection());
+        assertEquals(0, mIntegrator.getChargeMicroAmpHours());
+
+        add(3 * MINUTE, BatterySnapshot.STATUS_DISCHARGING, -CURRENT / 2);
+        assertEquals(8333, mIntegrator.getChargeMicroAmpHours());
+
+        // Unknown status keeps the session going
+        add(4 * MINUTE, BatterySnapshot.STATUS_UNKNOWN, -CURRENT / 2);
+        assertEquals(ChargeSessionIntegrator.DIRECTION_DISCHARGING, mIntegrator.getDirection());
+        assertEquals(16666, mIntegrator.getChargeMicroAmpHours());
+    }
+
+    @Test
+    public void fillsTheSessionFields() {
+        BatterySnapshot out = new BatterySnapshot();
+        mIntegrator.fill(out);
+        assertFalse(out.has(BatterySnapshot.FIELD_SESSION));
+
+        charge(0);
+        charge(MINUTE);
+        mIntegrator.fill(out);
+        assertTrue(out.has(BatterySnapshot.FIELD_SESSION));
+        assertEquals(ChargeSessionIntegrator.DIRECTION_CHARGING, out.sessionDirection);
+        assertEquals(16666, out.sessionCharge);
+        assertEquals(66666, out.sessionEnergy);
+        assertEquals(4000000, out.sessionAveragePower);
+
+        mIntegrator.reset();
+        mIntegrator.fill(out);
+        assertFalse(out.has(BatterySnapshot.FIELD_SESSION));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.batteryinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RollingHistogramTest {
+
+    // One minute in six ten second slots
+    private static final long WINDOW_MS = 60000;
+    private static final int SLOTS = 6;
+
+    @Test
+    public void smallValuesAreExact() {
+        RollingHistogram histogram = new RollingHistogram(WINDOW_MS, SLOTS, 0);
+        for (int value = 0; value < 10; value++) {
+            histogram.add(1000, value);
+        }
+        assertEquals(10, histogram.size());
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(0, histogram.getPercentile(10));
+        assertEquals(4, histogram.getPercentile(50));
+        assertEquals(8, histogram.getPercentile(90));
+        assertEquals(9, histogram.getPercentile(100));
+        assertEquals(0, histogram.getMin());
+        assertEquals(9, histogram.getMax());
+        assertEquals(4, histogram.getMean());
+    }
+
+    @Test
+    public void largeValuesStayWithinTheBucketError() {
+        RollingHistogram histogram = new RollingHistogram(WINDOW_MS, SLOTS, 0);
+        Random random = new Random(0);
+        long[] values = new long[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 16 + random.nextInt(5000000);
+            histogram.add(i, values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] { 1, 10, 25, 50, 75, 90, 99 }) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.getPercentile(percentile);
+            assertTrue(percentile + "th percentile " + actual + " too far from " + expected,
+                    Math.abs(actual - expected) <= expected * 0.0625);
+        }
+    }
+
+    @Test
+    public void percentilesAreClampedToTheSeenRange() {
+        RollingHistogram histogram = new RollingHistogram(WINDOW_MS, SLOTS, 0);
+        histogram.add(0, 1000001);
+        assertEquals(1000001, histogram.getPercentile(0));
+        assertEquals(1000001, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void offsetShiftsNegativeValuesIntoRange() {
+        // Temperatures in deci-degrees, down to -40 degrees
+        RollingHistogram histogram = new RollingHistogram(WINDOW_MS, SLOTS, -400);
+        histogram.add(0, -390);
+        histogram.add(0, -388);
+        histogram.add(0, -385);
+        assertEquals(-388, histogram.getPercentile(50));
+        assertEquals(-390, histogram.getMin());
+        assertEquals(-387, histogram.getMean());
+
+        // Below the offset counts as the offset
+        histogram.add(0, -1000);
+        assertEquals(-400, histogram.getPercentile(0));
+        assertEquals(-1000, histogram.getMin());
+    }
+
+    @Test
+    public void oldSlotsFallOutOfTheWindow() {
+        RollingHistogram histogram = new RollingHistogram(WINDOW_MS, SLOTS, 0);
+        histogram.add(0, 100);
+        histogram.add(30000, 200);
+        histogram.add(59999, 300);
+        assertEquals(3, histogram.size());
+
+        // The first slot covers 0 to 10 s and is dropped once a minute has passed
+        histogram.advance(60000);
+        assertEquals(2, histogram.size());
+        assertEquals(200, histogram.getMin());
+        assertEquals(250, histogram.getMean());
+
+        histogram.advance(89999);
+        assertEquals(2, histogram.size());
+        histogram.advance(90000);
+        assertEquals(1, histogram.size());
+        assertEquals(300, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void longGapClearsEverything() {
+        RollingHistogram histogram = new RollingHistogram(WINDOW_MS, SLOTS, 0);
+        histogram.add(0, 100);
+        histogram.add(10000, 200);
+        histogram.add(3600000, 50);
+        assertEquals(1, histogram.size());
+        assertEquals(50, histogram.getMax());
+
+        histogram.advance(7200000);
+        assertEquals(0, histogram.size());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FixedPointFormatterTest {
+
+    private static String format(long value, int scale, int fractionDigits) {
+        return FixedPointFormatter.append(new StringBuilder(), value, scale, fractionDigits)
+                .toString();
+    }
+
+    @Test
+    public void roundsHalfUp() {
+        assertEquals("4.1", format(4123456, 6, 1));
+        assertEquals("4.2", format(4150000, 6, 1));
+        assertEquals("4.1", format(4149999, 6, 1));
+        assertEquals("-4.2", format(-4150000, 6, 1));
+        assertEquals("10.0", format(9950000, 6, 1));
+    }
+
+    @Test
+    public void padsFractionWithZeros() {
+        assertEquals("1.05", format(1050000, 6, 2));
+        assertEquals("0.001", format(1, 3, 3));
+        assertEquals("29.1", format(291, 1, 1));
+        assertEquals("3", format(3, 0, 0));
+    }
+
+    @Test
+    public void keepsSignOfNegativeValuesRoundingToZero() {
+        // Same as String.format("%.1f", -0.04)
+        assertEquals("-0.0", format(-40000, 6, 1));
+        assertEquals("-0", format(-4, 1, 0));
+        assertEquals("0.0", format(40000, 6, 1));
+    }
+
+    @Test
+    public void handlesTheWholeLongRange() {
+        assertEquals("-9223372036854775808", format(Long.MIN_VALUE, 0, 0));
+        assertEquals("9223372036854775807", format(Long.MAX_VALUE, 0, 0));
+        assertEquals("-9223372036854775.808", format(Long.MIN_VALUE, 3, 3));
+        assertEquals("-9223372036854775.8", format(Long.MIN_VALUE, 3, 1));
+        assertEquals("-9.2", format(Long.MIN_VALUE, 18, 1));
+        assertEquals("9.2", format(Long.MAX_VALUE, 18, 1));
+    }
+
+    @Test
+    public void matchesBigDecimalRounding() {
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            long value = i % 2 == 0 ? random.nextLong() : random.nextInt(2000001) - 1000000;
+            int scale = random.nextInt(19);
+            int fractionDigits = random.nextInt(scale + 1);
+
+            BigDecimal expected = new BigDecimal(BigInteger.valueOf(value), scale)
+                    .setScale(fractionDigits, RoundingMode.HALF_UP);
+            String text = expected.toPlainString();
+            if (value < 0 && expected.signum() == 0) {
+                text = "-" + text;
+            }
+            assertEquals(text, format(value, scale, fractionDigits));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreFractionDigitsThanScale() {
+        format(1, 1, 2);
+    }
+}
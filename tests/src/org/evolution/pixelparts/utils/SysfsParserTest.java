@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 The Evolution X Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.evolution.pixelparts.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class SysfsParserTest {
+
+    private static final long DEFAULT = 12345;
+
+    private static long parseLong(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return SysfsParser.parseLong(bytes, 0, bytes.length, DEFAULT);
+    }
+
+    private static int parseInt(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return SysfsParser.parseInt(bytes, 0, bytes.length, (int) DEFAULT);
+    }
+
+    @Test
+    public void parsesSysfsValues() {
+        assertEquals(4123456, parseLong("4123456\n"));
+        assertEquals(-412000, parseLong("-412000\n"));
+        assertEquals(7, parseLong("+7"));
+        assertEquals(42, parseLong("  42 \t\r\n\0"));
+        assertEquals(0, parseLong("-0"));
+    }
+
+    @Test
+    public void parsesOnlyTheGivenRange() {
+        byte[] bytes = "POWER_SUPPLY_TEMP=291\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(291, SysfsParser.parseLong(bytes, 18, bytes.length, DEFAULT));
+        assertEquals(29, SysfsParser.parseLong(bytes, 18, 20, DEFAULT));
+    }
+
+    @Test
+    public void rejectsMalformedValues() {
+        assertEquals(DEFAULT, parseLong(""));
+        assertEquals(DEFAULT, parseLong(" \n"));
+        assertEquals(DEFAULT, parseLong("-"));
+        assertEquals(DEFAULT, parseLong("+\n"));
+        assertEquals(DEFAULT, parseLong("1a"));
+        assertEquals(DEFAULT, parseLong("1 2"));
+        assertEquals(DEFAULT, parseLong("--1"));
+        assertEquals(DEFAULT, parseLong("0x10"));
+    }
+
+    @Test
+    public void handlesTheEdgesOfTheLongRange() {
+        assertEquals(Long.MAX_VALUE, parseLong("9223372036854775807"));
+        assertEquals(Long.MIN_VALUE, parseLong("-9223372036854775808"));
+        assertEquals(Long.MAX_VALUE, parseLong("00009223372036854775807"));
+    }
+
+    @Test
+    public void rejectsLongOverflow() {
+        assertEquals(DEFAULT, parseLong("9223372036854775808"));
+        assertEquals(DEFAULT, parseLong("-9223372036854775809"));
+        assertEquals(DEFAULT, parseLong("9223372036854775810"));
+        assertEquals(DEFAULT, parseLong("18446744073709551616"));
+        assertEquals(DEFAULT, parseLong("99999999999999999999999"));
+    }
+
+    @Test
+    public void rejectsIntOverflow() {
+        assertEquals(Integer.MAX_VALUE, parseInt("2147483647"));
+        assertEquals(Integer.MIN_VALUE, parseInt("-2147483648"));
+        assertEquals((int) DEFAULT, parseInt("2147483648"));
+        assertEquals((int) DEFAULT, parseInt("-2147483649"));
+        assertEquals((int) DEFAULT, parseInt("4294967296"));
+        assertEquals((int) DEFAULT, parseInt("-9223372036854775808"));
+        assertEquals((int) DEFAULT, parseInt("9223372036854775808"));
+    }
+}